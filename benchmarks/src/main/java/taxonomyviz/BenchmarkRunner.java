@@ -0,0 +1,42 @@
+package taxonomyviz;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks jar. Accepts usual JMH command line options
+ * and unless result format is set writes results as JSON into
+ * benchmarks/results/jmh-<timestamp>.json, so runs of different releases
+ * can be compared.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		if (cmdOptions.shouldHelp()) {
+			cmdOptions.showHelp();
+			return;
+		}
+		if (cmdOptions.shouldList()) {
+			new Runner(cmdOptions).list();
+			return;
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions);
+		if (!cmdOptions.getResultFormat().hasValue()) {
+			File resultDir = new File("benchmarks/results");
+			resultDir.mkdirs();
+			String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+			File resultFile = new File(resultDir, "jmh-" + timestamp + ".json");
+			options.resultFormat(ResultFormatType.JSON).result(resultFile.getPath());
+			System.out.println("Results will be written into " + resultFile);
+		}
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,47 @@
+package taxonomyviz;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * NCBI taxonomy dump read into memory once per trial, so benchmarks measure
+ * parsing and tree processing rather than disk and unzipping. Benchmarks
+ * have to be started from project folder (dump is taken from temp folder
+ * and downloaded there if it's missing).
+ */
+@State(Scope.Benchmark)
+public class TaxDumpState {
+	public byte[] namesDmp;
+	public byte[] nodesDmp;
+	/** Tree with prepared indeces */
+	public TaxNode root;
+	public TaxTreeIndex index;
+
+	@Setup(Level.Trial)
+	public void load() throws Exception {
+		namesDmp = readEntry("names.dmp");
+		nodesDmp = readEntry("nodes.dmp");
+		root = parseTaxDump();
+		index = TaxTreeLoader.buildTaxIndex(root);
+	}
+
+	public TaxNode parseTaxDump() throws Exception {
+		return TaxTreeLoader.parseTaxDump(new ByteArrayInputStream(namesDmp), 
+				new ByteArrayInputStream(nodesDmp));
+	}
+
+	private static byte[] readEntry(String entryName) throws Exception {
+		InputStream is = TaxTreeLoader.openTaxDumpEntry(entryName);
+		try {
+			return IOUtils.toByteArray(is);
+		} finally {
+			is.close();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package taxonomyviz;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups of TaxNodeSearch against in-memory views and name index. Every
+ * invocation takes next taxid (or name) from fixed random sample.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@State(Scope.Thread)
+public class TaxNodeSearchBenchmark {
+	private static final int sampleSize = 1 << 16;
+	private TaxTreeView fullView;
+	private TaxTreeView genbankView;
+	private NameIndex nameIndex;
+	private int[] taxIds;
+	private String[] names;
+	private int pos = 0;
+
+	@Setup(Level.Trial)
+	public void prepare(TaxDumpState state) throws Exception {
+		TaxTreeIndex index = state.index;
+		fullView = TaxTreeView.full(index);
+		genbankView = TaxTreeView.genbank(index);
+		nameIndex = NameIndex.build(new ByteArrayInputStream(state.namesDmp));
+		Random random = new Random(42);
+		taxIds = new int[sampleSize];
+		names = new String[sampleSize];
+		for (int i = 0; i < sampleSize; i++) {
+			int ind = random.nextInt(index.size());
+			taxIds[i] = index.getTaxId(ind);
+			names[i] = index.getTitle(ind);
+		}
+	}
+
+	private int next() {
+		pos = (pos + 1) & (sampleSize - 1);
+		return pos;
+	}
+
+	@Benchmark
+	public List<Integer> getPath() {
+		return TaxNodeSearch.getPath(fullView, taxIds[next()]);
+	}
+
+	@Benchmark
+	public List<Integer> getPathGenbank() {
+		return TaxNodeSearch.getPath(genbankView, taxIds[next()]);
+	}
+
+	@Benchmark
+	public List<TaxNode> getChildren() {
+		return TaxNodeSearch.getChildren(fullView, taxIds[next()]);
+	}
+
+	@Benchmark
+	public List<TaxNode> getLargestChildren() {
+		return TaxNodeSearch.getLargestChildren(fullView, taxIds[next()], 10);
+	}
+
+	@Benchmark
+	public int[] findTaxIds() {
+		return nameIndex.getTaxIds(names[next()]);
+	}
+}
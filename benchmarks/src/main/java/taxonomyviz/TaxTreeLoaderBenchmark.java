@@ -0,0 +1,61 @@
+package taxonomyviz;
+
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import util.db.MysqlConn;
+
+/**
+ * Loading steps of TaxTreeLoader without file and database I/O.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+public class TaxTreeLoaderBenchmark {
+
+	/**
+	 * Line splitting of names.dmp and nodes.dmp and tree building
+	 */
+	@Benchmark
+	public TaxNode parseTaxDump(TaxDumpState state) throws Exception {
+		return state.parseTaxDump();
+	}
+
+	@Benchmark
+	public int prepareNodeIndeces(TaxDumpState state) {
+		return TaxTreeLoader.prepareNodeIndeces(state.root, 0, new TreeMap<Integer, Integer>(), -1);
+	}
+
+	/**
+	 * Row preparation for taxonomy table with batch consuming rows
+	 */
+	@Benchmark
+	public int insertTaxIndex(TaxDumpState state, final Blackhole blackhole) throws Exception {
+		return TaxTreeLoader.insertTaxIndex(-1, "", state.root, new MysqlConn.Batch() {
+			@Override
+			public void addNextRow(Object[] row) throws Exception {
+				blackhole.consume(row);
+			}
+
+			@Override
+			public void close() throws Exception {
+			}
+		});
+	}
+
+	@Benchmark
+	public TaxTreeIndex buildTaxIndex(TaxDumpState state) {
+		return new TaxTreeIndex(state.root);
+	}
+}
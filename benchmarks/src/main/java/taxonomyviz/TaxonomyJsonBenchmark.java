@@ -0,0 +1,67 @@
+package taxonomyviz;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writing and reading of taxonomy.json (nested form) and of compact form.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@State(Scope.Benchmark)
+public class TaxonomyJsonBenchmark {
+	private final ObjectMapper mapper = new ObjectMapper();
+	private byte[] nestedJson;
+	private byte[] compactJson;
+
+	@Setup(Level.Trial)
+	public void prepare(TaxDumpState state) throws Exception {
+		nestedJson = mapper.writeValueAsBytes(state.root);
+		compactJson = mapper.writeValueAsBytes(CompactTree.fromTaxNode(state.root));
+	}
+
+	@Benchmark
+	public long writeNested(TaxDumpState state) throws Exception {
+		return write(state.root);
+	}
+
+	@Benchmark
+	public TaxNode readNested() throws Exception {
+		return mapper.readValue(nestedJson, TaxNode.class);
+	}
+
+	@Benchmark
+	public long writeCompact(TaxDumpState state) throws Exception {
+		return write(CompactTree.fromTaxNode(state.root));
+	}
+
+	@Benchmark
+	public TaxNode readCompact() throws Exception {
+		return mapper.readValue(compactJson, CompactTree.class).toTaxNode();
+	}
+
+	private long write(Object value) throws Exception {
+		CountingOutputStream os = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+		mapper.writeValue((OutputStream)os, value);
+		return os.getByteCount();
+	}
+}
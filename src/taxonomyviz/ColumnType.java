@@ -26,6 +26,11 @@ public class ColumnType {
 		this.classification = classification;
 	}
 
+	public boolean isNumeric() {
+		return elementaryType.equals(ColumnTypeEnum.IntegerVal) || 
+				elementaryType.equals(ColumnTypeEnum.DoubleVal);
+	}
+
 	public boolean isDate() {
 		return elementaryType.equals(ColumnTypeEnum.DateVal);
 	}
@@ -0,0 +1,157 @@
+package taxonomyviz;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Track items sorted by ind of their tax nodes with every field stored as
+ * separate typed column (numbers as double[] with NaN for missing values,
+ * everything else as String[]). Items with unknown taxid (or without ind
+ * when inds are given) are dropped.
+ */
+public class ColumnarTrack {
+	public final Track track;
+	private final int[] inds;
+	private final int[] rows;
+	private final Map<String, ColumnDescription> columns = new HashMap<String, ColumnDescription>();
+	private final Map<String, double[]> numericColumns = new HashMap<String, double[]>();
+	private final Map<String, String[]> textColumns = new HashMap<String, String[]>();
+
+	/**
+	 * @param descriptions types of fields, fields without description are
+	 * treated as numeric if their first value is number and as text otherwise
+	 */
+	public ColumnarTrack(Track track, TaxTreeIndex index, Collection<ColumnDescription> descriptions) {
+		this(track, getInds(track, index), descriptions);
+	}
+
+	/**
+	 * @param itemInds ind of every item of track (negative for items to drop),
+	 * e.g. ones stored next to items by TrackStorage
+	 */
+	public ColumnarTrack(Track track, final int[] itemInds, Collection<ColumnDescription> descriptions) {
+		this.track = track;
+		int size = track.data.size();
+		int count = 0;
+		Integer[] order = new Integer[size];
+		for (int row = 0; row < size; row++)
+			if (itemInds[row] >= 0)
+				order[count++] = row;
+		Arrays.sort(order, 0, count, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				int ret = Integer.compare(itemInds[o1], itemInds[o2]);
+				return ret != 0 ? ret : Integer.compare(o1, o2);
+			}
+		});
+		inds = new int[count];
+		rows = new int[count];
+		for (int pos = 0; pos < count; pos++) {
+			rows[pos] = order[pos];
+			inds[pos] = itemInds[rows[pos]];
+		}
+		Map<String, ColumnDescription> known = new HashMap<String, ColumnDescription>();
+		if (descriptions != null)
+			for (ColumnDescription cd : descriptions)
+				known.put(cd.id, cd);
+		for (String field : track.fields) {
+			ColumnDescription cd = known.get(field);
+			if (cd == null)
+				cd = new ColumnDescription(field, field, guessType(field), null);
+			columns.put(field, cd);
+			if (cd.type.isNumeric()) {
+				double[] column = new double[count];
+				for (int pos = 0; pos < count; pos++) {
+					Object value = getItem(rows[pos]).get(field);
+					column[pos] = value instanceof Number ? ((Number)value).doubleValue() : Double.NaN;
+				}
+				numericColumns.put(field, column);
+			} else {
+				String[] column = new String[count];
+				for (int pos = 0; pos < count; pos++) {
+					Object value = getItem(rows[pos]).get(field);
+					column[pos] = value == null ? null : String.valueOf(value);
+				}
+				textColumns.put(field, column);
+			}
+		}
+	}
+
+	private static int[] getInds(Track track, TaxTreeIndex index) {
+		int[] ret = new int[track.data.size()];
+		for (int row = 0; row < ret.length; row++) {
+			@SuppressWarnings("unchecked")
+			Number taxId = (Number)((Map<String, Object>)track.data.get(row)).get("taxid");
+			ret[row] = taxId == null ? -1 : index.getInd(taxId.intValue());
+		}
+		return ret;
+	}
+
+	private ColumnType guessType(String field) {
+		for (Object obj : track.data) {
+			@SuppressWarnings("unchecked")
+			Object value = ((Map<String, Object>)obj).get(field);
+			if (value != null)
+				return value instanceof Number ? ColumnType.DoubleVal : ColumnType.StringVal;
+		}
+		return ColumnType.StringVal;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> getItem(int row) {
+		return (Map<String, Object>)track.data.get(row);
+	}
+
+	/**
+	 * @return number of items with known taxid
+	 */
+	public int size() {
+		return inds.length;
+	}
+
+	public int getInd(int pos) {
+		return inds[pos];
+	}
+
+	/**
+	 * @return original track item for given sorted position
+	 */
+	public Map<String, Object> getItemAt(int pos) {
+		return getItem(rows[pos]);
+	}
+
+	/**
+	 * @return first position with ind not less than given one
+	 */
+	public int lowerBound(int ind) {
+		int from = 0;
+		int to = inds.length;
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (inds[mid] < ind) {
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	public ColumnDescription getColumn(String field) {
+		ColumnDescription ret = columns.get(field);
+		if (ret == null)
+			throw new IllegalStateException("Unknown field: " + field);
+		return ret;
+	}
+
+	public double[] getNumericColumn(String field) {
+		return numericColumns.get(field);
+	}
+
+	public String[] getTextColumn(String field) {
+		return textColumns.get(field);
+	}
+}
@@ -0,0 +1,166 @@
+package taxonomyviz;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Columnar JSON form of (sub)tree. Nodes are listed in pre-order as parallel
+ * arrays instead of nested objects, so key names are not repeated for every
+ * node. Hidden flags are packed into 32-bit words (node i is bit i % 32 of
+ * word i / 32).
+ * Ranks are stored as positions in rankNames list (0 means "no rank").
+ */
+@JsonPropertyOrder({
+    "taxids",
+    "childCounts",
+    "titles",
+    "hidden",
+    "rankNames",
+    "ranks"
+})
+public class CompactTree {
+	public int[] taxids;
+	public int[] childCounts;
+	public String[] titles;
+	public int[] hidden;
+	public List<String> rankNames;
+	public int[] ranks;
+
+	public CompactTree() {}
+
+	private CompactTree(int size) {
+		taxids = new int[size];
+		childCounts = new int[size];
+		titles = new String[size];
+		hidden = new int[(size + 31) / 32];
+		rankNames = new ArrayList<String>();
+		rankNames.add("no rank");
+		ranks = new int[size];
+	}
+
+	public static void main(String[] args) throws Exception {
+		File taxFile = new File("data/taxonomy.json");
+		File compactFile = new File("data/taxonomy_compact.json");
+		TaxNode root = TaxTreeLoader.getTaxTree();
+		new ObjectMapper().writeValue(compactFile, fromTaxNode(root));
+		System.out.println("Nested size: " + taxFile.length() + ", compact size: " +
+				compactFile.length());
+		long time = System.currentTimeMillis();
+		new ObjectMapper().readValue(taxFile, TaxNode.class);
+		System.out.println("Nested parse time: " + (System.currentTimeMillis() - time) + " ms");
+		time = System.currentTimeMillis();
+		new ObjectMapper().readValue(compactFile, CompactTree.class).toTaxNode();
+		System.out.println("Compact parse time: " + (System.currentTimeMillis() - time) + " ms");
+	}
+
+	public int size() {
+		return taxids.length;
+	}
+
+	public boolean isHidden(int pos) {
+		return (hidden[pos >>> 5] & (1 << (pos & 31))) != 0;
+	}
+
+	/**
+	 * @return rank of node or null for "no rank" (also for trees saved before
+	 * ranks were added)
+	 */
+	public String getRank(int pos) {
+		return ranks == null || ranks[pos] == 0 ? null : rankNames.get(ranks[pos]);
+	}
+
+	private void set(int pos, int taxId, String title, String rank, int childCount, boolean isHidden) {
+		if (rank != null) {
+			int code = rankNames.indexOf(rank);
+			if (code < 0) {
+				code = rankNames.size();
+				rankNames.add(rank);
+			}
+			ranks[pos] = code;
+		}
+		taxids[pos] = taxId;
+		titles[pos] = title;
+		childCounts[pos] = childCount;
+		if (isHidden)
+			hidden[pos >>> 5] |= 1 << (pos & 31);
+	}
+
+	public static CompactTree fromTaxNode(TaxNode root) {
+		List<TaxNode> nodes = new ArrayList<TaxNode>();
+		Deque<TaxNode> stack = new ArrayDeque<TaxNode>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			TaxNode node = stack.pop();
+			nodes.add(node);
+			if (node.children != null)
+				for (int i = node.children.size() - 1; i >= 0; i--)
+					stack.push(node.children.get(i));
+		}
+		CompactTree ret = new CompactTree(nodes.size());
+		for (int pos = 0; pos < nodes.size(); pos++) {
+			TaxNode node = nodes.get(pos);
+			ret.set(pos, node.taxid, node.title, node.rank, node.children == null ? 0 :
+				node.children.size(), node.hidden != 0);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return subtree of node with given ind
+	 */
+	public static CompactTree fromTaxIndex(TaxTreeIndex index, int ind) {
+		int maxInd = index.getMaxInd(ind);
+		CompactTree ret = new CompactTree(maxInd - ind + 1);
+		for (int i = ind; i <= maxInd; i++) {
+			int childCount = 0;
+			for (int ch = index.getFirstChild(i); ch >= 0; ch = index.getNextSibling(ch))
+				childCount++;
+			ret.set(i - ind, index.getTaxId(i), index.getTitle(i), index.getRank(i), childCount, 
+					index.isHidden(i));
+		}
+		return ret;
+	}
+
+	public TaxNode toTaxNode() {
+		Deque<TaxNode> parents = new ArrayDeque<TaxNode>();
+		Deque<Integer> remainingChildren = new ArrayDeque<Integer>();
+		TaxNode root = null;
+		for (int pos = 0; pos < taxids.length; pos++) {
+			TaxNode node = new TaxNode(taxids[pos], titles[pos]);
+			node.hidden = isHidden(pos) ? 1 : 0;
+			node.rank = getRank(pos);
+			if (parents.isEmpty()) {
+				if (root != null)
+					throw new IllegalStateException("More than one root in compact tree");
+				root = node;
+			} else {
+				TaxNode parent = parents.peek();
+				parent.children.add(node);
+				int remaining = remainingChildren.pop() - 1;
+				if (remaining > 0) {
+					remainingChildren.push(remaining);
+				} else {
+					parents.pop();
+				}
+			}
+			if (childCounts[pos] > 0) {
+				node.children = new ArrayList<TaxNode>(childCounts[pos]);
+				parents.push(node);
+				remainingChildren.push(childCounts[pos]);
+			}
+		}
+		if (!parents.isEmpty())
+			throw new IllegalStateException("Compact tree is truncated");
+		return root;
+	}
+
+	public TaxTreeIndex toTaxIndex() {
+		return TaxTreeLoader.buildTaxIndex(toTaxNode());
+	}
+}
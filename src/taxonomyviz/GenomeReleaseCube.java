@@ -0,0 +1,448 @@
+package taxonomyviz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Genome counts and summed size in Mb keyed by (tax node, month of release,
+ * status category). Rows are rolled up the tree in one reverse pre-order
+ * pass, so every node holds totals of its whole subtree and a subtree and
+ * date range query reads one sorted row of cells. Cells are kept in CSR form:
+ * nodes having genomes in their subtree in ind order, each pointing to a
+ * range of cells sorted by (month, category).
+ */
+public class GenomeReleaseCube {
+	public static final String defaultDateField = "rel_date";
+	public static final String otherCategory = "Other";
+	private static final int fileMagic = 0x47524332;
+	private static final File trackFile = new File("data/track_ncbi_genomes.json");
+	private static final File cubeFile = new File("data/genome_release_cube.bin");
+
+	/** Version of taxonomy (see TaxTreeLoader.getTaxonomyVersion) inds belong to */
+	private final String taxonomyVersion;
+	/** Status categories, last one is used for unknown statuses */
+	private final List<String> categories;
+	private final int[] nodeInds;
+	private final int[] cellStarts;
+	/** month * categoryCount + category */
+	private final int[] cellKeys;
+	private final int[] cellCounts;
+	private final double[] cellSizes;
+
+	private GenomeReleaseCube(String taxonomyVersion, List<String> categories, int[] nodeInds,
+			int[] cellStarts, int[] cellKeys, int[] cellCounts, double[] cellSizes) {
+		this.taxonomyVersion = taxonomyVersion;
+		this.categories = categories;
+		this.nodeInds = nodeInds;
+		this.cellStarts = cellStarts;
+		this.cellKeys = cellKeys;
+		this.cellCounts = cellCounts;
+		this.cellSizes = cellSizes;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: GenomeReleaseCube <taxid> [<from YYYY[/MM]> <to YYYY[/MM]> [<months per step>]]");
+			return;
+		}
+		TaxonomySnapshot snapshot = TaxonomyHolder.get();
+		TaxTreeIndex index = snapshot.index;
+		GenomeReleaseCube cube = null;
+		if (cubeFile.exists() && cubeFile.lastModified() > trackFile.lastModified()) {
+			cube = load(cubeFile);
+			if (!cube.getTaxonomyVersion().equals(snapshot.version))
+				cube = null;
+		}
+		if (cube == null) {
+			Track track = new ObjectMapper().readValue(trackFile, Track.class);
+			long time = System.currentTimeMillis();
+			cube = build(index, snapshot.version, track, defaultDateField, getStatusCategories());
+			System.out.println("Cube build time: " + (System.currentTimeMillis() - time) + " ms, " +
+					"nodes: " + cube.getNodeCount() + ", cells: " + cube.getCellCount());
+			cube.save(cubeFile);
+		}
+		int fromMonth = args.length > 1 ? parseMonth(args[1], false) : 0;
+		int toMonth = args.length > 2 ? parseMonth(args[2], true) : parseMonth("9999", true);
+		int step = args.length > 3 ? Integer.parseInt(args[3]) : 12;
+		long time = System.nanoTime();
+		Timeline timeline = cube.query(index, Integer.parseInt(args[0]), fromMonth, toMonth, step);
+		System.out.println("Query time: " + (System.nanoTime() - time) / 1000 + " us");
+		System.out.println(new ObjectMapper().writeValueAsString(timeline));
+	}
+
+	/**
+	 * @return second level classes of status column ("Complete Genome",
+	 * "Chromosome", ...) followed by otherCategory
+	 */
+	public static List<String> getStatusCategories() {
+		List<String> ret = new ArrayList<String>();
+		for (ColumnDescription cd : NcbiGenomesTrackPreparer.getColumns())
+			if (cd.id.equals("status"))
+				for (ClassificationNode top : cd.type.getClassification().subnodes)
+					for (ClassificationNode node : top.subnodes)
+						ret.add(node.name);
+		ret.add(otherCategory);
+		return ret;
+	}
+
+	/**
+	 * @param taxonomyVersion version of taxonomy index was built from, it's
+	 * stored with cube
+	 * @param categories status categories, subclasses of category in status
+	 * classification are counted in category, last one is for the rest
+	 */
+	public static GenomeReleaseCube build(TaxTreeIndex index, String taxonomyVersion, Track track,
+			String dateField, List<String> categories) {
+		int categoryCount = categories.size();
+		Map<String, Integer> statusToCategory = new HashMap<String, Integer>();
+		for (ColumnDescription cd : NcbiGenomesTrackPreparer.getColumns())
+			if (cd.id.equals("status"))
+				collectStatuses(cd.type.getClassification(), -1, categories, statusToCategory);
+		for (int category = 0; category < categoryCount; category++)
+			statusToCategory.put(categories.get(category), category);
+		// Own cells of nodes
+		long[] rowKeys = new long[track.data.size()];
+		double[] rowSizes = new double[track.data.size()];
+		int rowCount = 0;
+		for (Object obj : track.data) {
+			@SuppressWarnings("unchecked")
+			Map<String, Object> item = (Map<String, Object>)obj;
+			Number taxId = (Number)item.get("taxid");
+			int ind = taxId == null ? -1 : index.getInd(taxId.intValue());
+			Object date = item.get(dateField);
+			int month = date == null ? -1 : parseMonth(String.valueOf(date), false);
+			if (ind < 0 || month < 0)
+				continue;
+			Object status = item.get("status");
+			Integer category = status == null ? null : statusToCategory.get(String.valueOf(status).trim());
+			int key = month * categoryCount + (category == null ? categoryCount - 1 : category);
+			rowKeys[rowCount] = ((long)ind << 32) | key;
+			rowSizes[rowCount] = getSizeMb(item);
+			rowCount++;
+		}
+		Integer[] order = new Integer[rowCount];
+		for (int i = 0; i < rowCount; i++)
+			order[i] = i;
+		final long[] sortKeys = rowKeys;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Long.compare(sortKeys[o1], sortKeys[o2]);
+			}
+		});
+		Cells[] cells = new Cells[index.size()];
+		for (int i = 0; i < rowCount; i++) {
+			long rowKey = rowKeys[order[i]];
+			int ind = (int)(rowKey >>> 32);
+			if (cells[ind] == null)
+				cells[ind] = new Cells(4);
+			cells[ind].append((int)rowKey, 1, rowSizes[order[i]]);
+		}
+		// Children always have larger ind than parent, so node is complete
+		// when reverse sweep reaches it
+		int nodeCount = 0;
+		int cellCount = 0;
+		for (int ind = cells.length - 1; ind >= 0; ind--) {
+			if (cells[ind] == null)
+				continue;
+			nodeCount++;
+			cellCount += cells[ind].size;
+			int parent = index.getParent(ind);
+			if (parent >= 0)
+				cells[parent] = Cells.merge(cells[parent], cells[ind]);
+		}
+		int[] nodeInds = new int[nodeCount];
+		int[] cellStarts = new int[nodeCount + 1];
+		int[] cellKeys = new int[cellCount];
+		int[] cellCounts = new int[cellCount];
+		double[] cellSizes = new double[cellCount];
+		int node = 0;
+		int pos = 0;
+		for (int ind = 0; ind < cells.length; ind++) {
+			Cells nodeCells = cells[ind];
+			if (nodeCells == null)
+				continue;
+			nodeInds[node] = ind;
+			cellStarts[node] = pos;
+			System.arraycopy(nodeCells.keys, 0, cellKeys, pos, nodeCells.size);
+			System.arraycopy(nodeCells.counts, 0, cellCounts, pos, nodeCells.size);
+			System.arraycopy(nodeCells.sizes, 0, cellSizes, pos, nodeCells.size);
+			pos += nodeCells.size;
+			node++;
+		}
+		cellStarts[nodeCount] = pos;
+		return new GenomeReleaseCube(taxonomyVersion, new ArrayList<String>(categories), nodeInds,
+				cellStarts, cellKeys, cellCounts, cellSizes);
+	}
+
+	/**
+	 * @return size_mb of genome or size_kb converted to Mb (viruses.txt has
+	 * only the latter), 0 if both are missing
+	 */
+	private static double getSizeMb(Map<String, Object> item) {
+		Object size = item.get("size_mb");
+		if (size instanceof Number)
+			return ((Number)size).doubleValue();
+		size = item.get("size_kb");
+		return size instanceof Number ? ((Number)size).doubleValue() / 1000 : 0;
+	}
+
+	private static void collectStatuses(ClassificationNode node, int category,
+			List<String> categories, Map<String, Integer> statusToCategory) {
+		int nodeCategory = categories.indexOf(node.name);
+		// Class with single subclass (like "Complete" used in viruses.txt for
+		// "Complete Genome") is the same category as its subclass
+		if (nodeCategory < 0 && node.subnodes != null && node.subnodes.size() == 1)
+			nodeCategory = categories.indexOf(node.subnodes.iterator().next().name);
+		if (nodeCategory >= 0)
+			category = nodeCategory;
+		if (category >= 0)
+			statusToCategory.put(node.name, category);
+		if (node.subnodes != null)
+			for (ClassificationNode child : node.subnodes)
+				collectStatuses(child, category, categories, statusToCategory);
+	}
+
+	/**
+	 * @param date date in YYYY/MM/dd format (YYYY/MM and YYYY are accepted too)
+	 * @param end if true last month of year is used when month is missing
+	 * @return number of months since year 0 or -1 for wrong date
+	 */
+	public static int parseMonth(String date, boolean end) {
+		try {
+			int year = Integer.parseInt(date.length() > 4 ? date.substring(0, 4) : date);
+			int month = date.length() >= 7 ? Integer.parseInt(date.substring(5, 7)) : (end ? 12 : 1);
+			if (year < 0 || month < 1 || month > 12)
+				return -1;
+			return year * 12 + month - 1;
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	public static String formatMonth(int month) {
+		return String.format("%04d/%02d", month / 12, month % 12 + 1);
+	}
+
+	public String getTaxonomyVersion() {
+		return taxonomyVersion;
+	}
+
+	public List<String> getCategories() {
+		return categories;
+	}
+
+	/**
+	 * @return number of nodes having genomes in their subtree
+	 */
+	public int getNodeCount() {
+		return nodeInds.length;
+	}
+
+	public int getCellCount() {
+		return cellKeys.length;
+	}
+
+	/**
+	 * @param fromMonth first month (see parseMonth)
+	 * @param toMonth last month (inclusive)
+	 * @param stepMonths number of months in one timeline bucket
+	 * @return counts and sizes of genomes in subtree of taxId per bucket and
+	 * status category
+	 */
+	public Timeline query(TaxTreeIndex index, int taxId, int fromMonth, int toMonth, int stepMonths) {
+		int ind = index.getInd(taxId);
+		if (ind < 0)
+			throw new IllegalStateException("Tax node wasn't found for id=" + taxId);
+		int categoryCount = categories.size();
+		int node = Arrays.binarySearch(nodeInds, ind);
+		int from = 0;
+		int to = 0;
+		if (node >= 0) {
+			from = lowerBound(cellStarts[node], cellStarts[node + 1], fromMonth * categoryCount);
+			to = lowerBound(from, cellStarts[node + 1], (toMonth + 1) * categoryCount);
+			// Empty buckets before first and after last found cell are trimmed
+			if (from < to) {
+				fromMonth += (cellKeys[from] / categoryCount - fromMonth) / stepMonths * stepMonths;
+				toMonth = Math.min(toMonth, cellKeys[to - 1] / categoryCount);
+			}
+		}
+		int bucketCount = from < to ? (toMonth - fromMonth) / stepMonths + 1 : 0;
+		Timeline ret = new Timeline(taxId, categories, fromMonth, stepMonths, bucketCount);
+		for (int pos = from; pos < to; pos++) {
+			int bucket = (cellKeys[pos] / categoryCount - fromMonth) / stepMonths;
+			int category = cellKeys[pos] % categoryCount;
+			ret.counts[bucket][category] += cellCounts[pos];
+			ret.sizes[bucket][category] += cellSizes[pos];
+			ret.total += cellCounts[pos];
+		}
+		return ret;
+	}
+
+	private int lowerBound(int from, int to, int key) {
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (cellKeys[mid] < key) {
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	public void save(File file) throws Exception {
+		DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		try {
+			os.writeInt(fileMagic);
+			os.writeUTF(taxonomyVersion);
+			os.writeInt(categories.size());
+			for (String category : categories)
+				os.writeUTF(category);
+			os.writeInt(nodeInds.length);
+			for (int node = 0; node < nodeInds.length; node++) {
+				os.writeInt(nodeInds[node]);
+				os.writeInt(cellStarts[node + 1] - cellStarts[node]);
+			}
+			os.writeInt(cellKeys.length);
+			for (int pos = 0; pos < cellKeys.length; pos++) {
+				os.writeInt(cellKeys[pos]);
+				os.writeInt(cellCounts[pos]);
+				os.writeDouble(cellSizes[pos]);
+			}
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Cube is addressed by ind, so it has to be rebuilt with taxonomy: callers
+	 * compare getTaxonomyVersion with current one.
+	 */
+	public static GenomeReleaseCube load(File file) throws Exception {
+		DataInputStream is = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 1 << 16));
+		try {
+			if (is.readInt() != fileMagic)
+				throw new IllegalStateException("Wrong format of genome release cube file: " + file);
+			String taxonomyVersion = is.readUTF();
+			int categoryCount = is.readInt();
+			List<String> categories = new ArrayList<String>();
+			for (int i = 0; i < categoryCount; i++)
+				categories.add(is.readUTF());
+			int nodeCount = is.readInt();
+			int[] nodeInds = new int[nodeCount];
+			int[] cellStarts = new int[nodeCount + 1];
+			for (int node = 0; node < nodeCount; node++) {
+				nodeInds[node] = is.readInt();
+				cellStarts[node + 1] = cellStarts[node] + is.readInt();
+			}
+			int cellCount = is.readInt();
+			int[] cellKeys = new int[cellCount];
+			int[] cellCounts = new int[cellCount];
+			double[] cellSizes = new double[cellCount];
+			for (int pos = 0; pos < cellCount; pos++) {
+				cellKeys[pos] = is.readInt();
+				cellCounts[pos] = is.readInt();
+				cellSizes[pos] = is.readDouble();
+			}
+			return new GenomeReleaseCube(taxonomyVersion, categories, nodeInds, cellStarts, cellKeys, cellCounts,
+					cellSizes);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Growing list of cells sorted by key.
+	 */
+	private static class Cells {
+		int[] keys;
+		int[] counts;
+		double[] sizes;
+		int size = 0;
+
+		Cells(int capacity) {
+			keys = new int[capacity];
+			counts = new int[capacity];
+			sizes = new double[capacity];
+		}
+
+		/**
+		 * Key has to be not less than last key.
+		 */
+		void append(int key, int count, double sizeMb) {
+			if (size > 0 && keys[size - 1] == key) {
+				counts[size - 1] += count;
+				sizes[size - 1] += sizeMb;
+				return;
+			}
+			if (size == keys.length) {
+				int capacity = Math.max(4, size * 2);
+				keys = Arrays.copyOf(keys, capacity);
+				counts = Arrays.copyOf(counts, capacity);
+				sizes = Arrays.copyOf(sizes, capacity);
+			}
+			keys[size] = key;
+			counts[size] = count;
+			sizes[size] = sizeMb;
+			size++;
+		}
+
+		/**
+		 * @return union of cells with values of equal keys summed (arguments
+		 * are not changed)
+		 */
+		static Cells merge(Cells a, Cells b) {
+			if (a == null)
+				a = new Cells(0);
+			Cells ret = new Cells(Math.max(a.size, b.size));
+			int i = 0;
+			int j = 0;
+			while (i < a.size || j < b.size) {
+				if (j >= b.size || (i < a.size && a.keys[i] <= b.keys[j])) {
+					ret.append(a.keys[i], a.counts[i], a.sizes[i]);
+					i++;
+				} else {
+					ret.append(b.keys[j], b.counts[j], b.sizes[j]);
+					j++;
+				}
+			}
+			return ret;
+		}
+	}
+
+	public static class Timeline {
+		public final int taxid;
+		public final List<String> categories;
+		/** Labels of first months of buckets */
+		public final String[] buckets;
+		public final int[][] counts;
+		public final double[][] sizes;
+		public int total = 0;
+
+		Timeline(int taxId, List<String> categories, int fromMonth, int stepMonths, int bucketCount) {
+			this.taxid = taxId;
+			this.categories = categories;
+			buckets = new String[bucketCount];
+			for (int bucket = 0; bucket < bucketCount; bucket++)
+				buckets[bucket] = formatMonth(fromMonth + bucket * stepMonths);
+			counts = new int[bucketCount][categories.size()];
+			sizes = new double[bucketCount][categories.size()];
+		}
+	}
+}
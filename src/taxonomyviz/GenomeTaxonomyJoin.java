@@ -0,0 +1,135 @@
+package taxonomyviz;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Links genome report rows to taxonomy: tax_id is resolved against in-memory
+ * index, deprecated ids are followed through merged.dmp and rows without
+ * usable tax_id are matched by organism name (any name class of names.dmp).
+ */
+public class GenomeTaxonomyJoin {
+	private static final File trackFile = new File("data/track_ncbi_genomes.json");
+	private static final File unresolvedFile = new File("data/track_ncbi_genomes_unresolved.txt");
+
+	private final TaxTreeIndex index;
+	private final Map<Integer, Integer> mergedTaxIds;
+	private final NameIndex nameIndex;
+	public int resolvedByTaxId = 0;
+	public int resolvedByMerge = 0;
+	public int resolvedByName = 0;
+	public final List<Map<String, Object>> unresolved = new ArrayList<Map<String, Object>>();
+
+	public GenomeTaxonomyJoin(TaxTreeIndex index, Map<Integer, Integer> mergedTaxIds,
+			NameIndex nameIndex) {
+		this.index = index;
+		this.mergedTaxIds = mergedTaxIds;
+		this.nameIndex = nameIndex;
+	}
+
+	public static void main(String[] args) throws Exception {
+		TaxTreeIndex index = TaxTreeLoader.getTaxIndex();
+		Map<Integer, Integer> merged = TaxTreeLoader.loadMergedTaxIds();
+		NameIndex nameIndex = TaxNodeSearch.getNameIndex();
+		List<Object> rows = NcbiGenomesTrackPreparer.parseGenomes(new TreeSet<String>());
+		long time = System.currentTimeMillis();
+		GenomeTaxonomyJoin join = new GenomeTaxonomyJoin(index, merged, nameIndex);
+		Track track = join.join(rows);
+		track.name = "NCBI genomes";
+		track.user = "rsutormin";
+		System.out.println("Join time: " + (System.currentTimeMillis() - time) + " ms");
+		System.out.println("Rows: " + rows.size() + ", by taxid: " + join.resolvedByTaxId +
+				", by merged taxid: " + join.resolvedByMerge + ", by name: " +
+				join.resolvedByName + ", unresolved: " + join.unresolved.size());
+		new ObjectMapper().writeValue(trackFile, track);
+		PrintWriter pw = new PrintWriter(unresolvedFile);
+		try {
+			for (Map<String, Object> row : join.unresolved)
+				pw.println(row.get("tax_id") + "\t" + row.get("name"));
+		} finally {
+			pw.close();
+		}
+	}
+
+	/**
+	 * @return track with "taxid" field set to valid taxid for every resolved row
+	 */
+	public Track join(List<Object> rows) {
+		Track ret = new Track();
+		List<String> fields = new ArrayList<String>(NcbiGenomesTrackPreparer.getColumnIds());
+		fields.remove("tax_id");
+		ret.fields = fields;
+		List<Object> data = new ArrayList<Object>();
+		ret.data = data;
+		for (Object obj : rows) {
+			@SuppressWarnings("unchecked")
+			Map<String, Object> row = (Map<String, Object>)obj;
+			int taxId = resolve(row);
+			if (taxId < 0) {
+				unresolved.add(row);
+				continue;
+			}
+			Map<String, Object> item = new LinkedHashMap<String, Object>();
+			item.put("taxid", taxId);
+			for (Map.Entry<String, Object> entry : row.entrySet())
+				if (!entry.getKey().equals("tax_id"))
+					item.put(entry.getKey(), entry.getValue());
+			data.add(item);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return valid taxid for genome row or -1 if it can't be resolved
+	 */
+	public int resolve(Map<String, Object> row) {
+		Number rowTaxId = (Number)row.get("tax_id");
+		if (rowTaxId != null) {
+			int taxId = rowTaxId.intValue();
+			if (index.getInd(taxId) >= 0) {
+				resolvedByTaxId++;
+				return taxId;
+			}
+			Set<Integer> visited = new TreeSet<Integer>();
+			while (mergedTaxIds.containsKey(taxId) && visited.add(taxId)) {
+				taxId = mergedTaxIds.get(taxId);
+				if (index.getInd(taxId) >= 0) {
+					resolvedByMerge++;
+					return taxId;
+				}
+			}
+		}
+		String name = (String)row.get("name");
+		if (name != null) {
+			// Name index may return taxid of another name with the same hash, so
+			// node which title is the name wins over synonyms and other hits
+			String normalizedName = NameIndex.normalize(name);
+			int unverifiedTaxId = -1;
+			for (int taxId : nameIndex.getTaxIds(name)) {
+				int ind = index.getInd(taxId);
+				if (ind < 0)
+					continue;
+				String title = index.getTitle(ind);
+				if (title != null && NameIndex.normalize(title).equals(normalizedName)) {
+					resolvedByName++;
+					return taxId;
+				}
+				if (unverifiedTaxId < 0)
+					unverifiedTaxId = taxId;
+			}
+			if (unverifiedTaxId >= 0) {
+				resolvedByName++;
+				return unverifiedTaxId;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,509 @@
+package taxonomyviz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compressed set of pre-order positions (inds) in Roaring style: values are
+ * split by high 16 bits into containers, each container is either sorted
+ * array of low 16 bits (up to 4096 values) or 65536-bit bitmap. Subtree of
+ * node is contiguous [ind, maxind] range, so subtree masks are cheap.
+ */
+public class IndBitmap {
+	private static final int arrayMaxSize = 4096;
+	private static final int bitmapWords = 1024;
+	private static final int fileMagic = 0x49424d31;
+
+	private int[] keys = new int[0];
+	private Container[] containers = new Container[0];
+	private int size = 0;
+
+	public IndBitmap() {}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: IndBitmap <track.json> [<subtree taxid>]");
+			return;
+		}
+		TaxTreeIndex index = TaxTreeLoader.getTaxIndex();
+		File trackFile = new File(args[0]);
+		Track track = new ObjectMapper().readValue(trackFile, Track.class);
+		long time = System.currentTimeMillis();
+		IndBitmap ret = and(fromTrack(index, track), notHidden(index));
+		if (args.length > 1) {
+			int ind = index.getInd(Integer.parseInt(args[1]));
+			if (ind < 0)
+				throw new IllegalStateException("Tax node wasn't found for id=" + args[1]);
+			ret = ret.maskSubtree(index, ind);
+		}
+		System.out.println("Visible nodes with track items: " + ret.cardinality() + 
+				", time: " + (System.currentTimeMillis() - time) + " ms");
+		ret.save(new File(trackFile.getParentFile(), trackFile.getName() + ".bitmap"));
+	}
+
+	public static IndBitmap fromInds(int... inds) {
+		int[] sorted = inds.clone();
+		Arrays.sort(sorted);
+		IndBitmap ret = new IndBitmap();
+		for (int ind : sorted)
+			ret.add(ind);
+		return ret;
+	}
+
+	public static IndBitmap fromTaxIds(TaxTreeIndex index, Collection<Integer> taxIds) {
+		IndBitmap ret = new IndBitmap();
+		for (int taxId : taxIds) {
+			int ind = index.getInd(taxId);
+			if (ind >= 0)
+				ret.add(ind);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return nodes having at least one item in track
+	 */
+	public static IndBitmap fromTrack(TaxTreeIndex index, Track track) {
+		IndBitmap ret = new IndBitmap();
+		for (Object obj : track.data) {
+			@SuppressWarnings("unchecked")
+			Number taxId = (Number)((Map<String, Object>)obj).get("taxid");
+			int ind = taxId == null ? -1 : index.getInd(taxId.intValue());
+			if (ind >= 0)
+				ret.add(ind);
+		}
+		return ret;
+	}
+
+	public static IndBitmap fromMatches(List<TrackOverlayQuery.Match> matches) {
+		IndBitmap ret = new IndBitmap();
+		for (TrackOverlayQuery.Match match : matches)
+			ret.add(match.ind);
+		return ret;
+	}
+
+	/**
+	 * @return all nodes of subtree of given node (including it)
+	 */
+	public static IndBitmap subtree(TaxTreeIndex index, int ind) {
+		IndBitmap ret = new IndBitmap();
+		ret.addRange(ind, index.getMaxInd(ind));
+		return ret;
+	}
+
+	public static IndBitmap notHidden(TaxTreeIndex index) {
+		IndBitmap ret = new IndBitmap();
+		for (int ind = 0; ind < index.size(); ind++)
+			if (!index.isHidden(ind))
+				ret.add(ind);
+		return ret;
+	}
+
+	public int cardinality() {
+		int ret = 0;
+		for (int i = 0; i < size; i++)
+			ret += containers[i].cardinality;
+		return ret;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean contains(int ind) {
+		int pos = Arrays.binarySearch(keys, 0, size, ind >>> 16);
+		return pos >= 0 && containers[pos].contains((char)ind);
+	}
+
+	public void add(int ind) {
+		getOrCreate(ind >>> 16).add((char)ind);
+	}
+
+	/**
+	 * Adds all values of [from, to] range.
+	 */
+	public void addRange(int from, int to) {
+		for (int key = from >>> 16; key <= to >>> 16; key++) {
+			int low = key == from >>> 16 ? from & 0xffff : 0;
+			int high = key == to >>> 16 ? to & 0xffff : 0xffff;
+			Container c = getOrCreate(key);
+			c.toBitmap();
+			for (int v = low; v <= high; ) {
+				if ((v & 63) == 0 && v + 63 <= high) {
+					c.bits[v >>> 6] = -1L;
+					v += 64;
+				} else {
+					c.bits[v >>> 6] |= 1L << v;
+					v++;
+				}
+			}
+			c.recount();
+			c.optimize();
+		}
+	}
+
+	public int[] toArray() {
+		int[] ret = new int[cardinality()];
+		int pos = 0;
+		for (int i = 0; i < size; i++) {
+			int high = keys[i] << 16;
+			Container c = containers[i];
+			if (c.bits == null) {
+				for (int j = 0; j < c.cardinality; j++)
+					ret[pos++] = high | c.array[j];
+			} else {
+				for (int w = 0; w < bitmapWords; w++) {
+					long word = c.bits[w];
+					while (word != 0) {
+						ret[pos++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	public static IndBitmap and(IndBitmap a, IndBitmap b) {
+		IndBitmap ret = new IndBitmap();
+		for (int i = 0, j = 0; i < a.size && j < b.size; ) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				Container c = Container.and(a.containers[i], b.containers[j]);
+				if (c.cardinality > 0)
+					ret.append(a.keys[i], c);
+				i++;
+				j++;
+			}
+		}
+		return ret;
+	}
+
+	public static IndBitmap or(IndBitmap a, IndBitmap b) {
+		IndBitmap ret = new IndBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < a.size || j < b.size) {
+			if (j >= b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+				ret.append(a.keys[i], a.containers[i].copy());
+				i++;
+			} else if (i >= a.size || a.keys[i] > b.keys[j]) {
+				ret.append(b.keys[j], b.containers[j].copy());
+				j++;
+			} else {
+				ret.append(a.keys[i], Container.or(a.containers[i], b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return values of a which are not in b
+	 */
+	public static IndBitmap andNot(IndBitmap a, IndBitmap b) {
+		IndBitmap ret = new IndBitmap();
+		for (int i = 0, j = 0; i < a.size; ) {
+			if (j >= b.size || a.keys[i] < b.keys[j]) {
+				ret.append(a.keys[i], a.containers[i].copy());
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				Container c = Container.andNot(a.containers[i], b.containers[j]);
+				if (c.cardinality > 0)
+					ret.append(a.keys[i], c);
+				i++;
+				j++;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return values of this set inside subtree of given node
+	 */
+	public IndBitmap maskSubtree(TaxTreeIndex index, int ind) {
+		return and(this, subtree(index, ind));
+	}
+
+	public void save(File file) throws IOException {
+		DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		try {
+			write(os);
+		} finally {
+			os.close();
+		}
+	}
+
+	public static IndBitmap load(File file) throws IOException {
+		DataInputStream is = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 1 << 16));
+		try {
+			return read(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	public void write(DataOutputStream os) throws IOException {
+		os.writeInt(fileMagic);
+		os.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			Container c = containers[i];
+			os.writeInt(keys[i]);
+			os.writeInt(c.cardinality);
+			if (c.bits == null) {
+				for (int j = 0; j < c.cardinality; j++)
+					os.writeChar(c.array[j]);
+			} else {
+				for (long word : c.bits)
+					os.writeLong(word);
+			}
+		}
+	}
+
+	public static IndBitmap read(DataInputStream is) throws IOException {
+		if (is.readInt() != fileMagic)
+			throw new IllegalStateException("Wrong format of bitmap data");
+		IndBitmap ret = new IndBitmap();
+		int count = is.readInt();
+		for (int i = 0; i < count; i++) {
+			int key = is.readInt();
+			Container c = new Container();
+			c.cardinality = is.readInt();
+			if (c.cardinality <= arrayMaxSize) {
+				c.array = new char[Math.max(4, c.cardinality)];
+				for (int j = 0; j < c.cardinality; j++)
+					c.array[j] = is.readChar();
+			} else {
+				c.array = null;
+				c.bits = new long[bitmapWords];
+				for (int w = 0; w < bitmapWords; w++)
+					c.bits[w] = is.readLong();
+			}
+			ret.append(key, c);
+		}
+		return ret;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof IndBitmap && Arrays.equals(toArray(), ((IndBitmap)obj).toArray());
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(toArray());
+	}
+
+	private Container getOrCreate(int key) {
+		if (size > 0 && keys[size - 1] == key)
+			return containers[size - 1];
+		int pos = Arrays.binarySearch(keys, 0, size, key);
+		if (pos >= 0)
+			return containers[pos];
+		pos = -pos - 1;
+		ensureCapacity(size + 1);
+		System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+		System.arraycopy(containers, pos, containers, pos + 1, size - pos);
+		keys[pos] = key;
+		containers[pos] = new Container();
+		size++;
+		return containers[pos];
+	}
+
+	private void append(int key, Container c) {
+		ensureCapacity(size + 1);
+		keys[size] = key;
+		containers[size] = c;
+		size++;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= keys.length)
+			return;
+		int newCapacity = Math.max(4, Math.max(capacity, keys.length * 2));
+		keys = Arrays.copyOf(keys, newCapacity);
+		containers = Arrays.copyOf(containers, newCapacity);
+	}
+
+	private static class Container {
+		char[] array = new char[4];
+		long[] bits = null;
+		int cardinality = 0;
+
+		boolean contains(char v) {
+			if (bits != null)
+				return (bits[v >>> 6] & (1L << v)) != 0;
+			return Arrays.binarySearch(array, 0, cardinality, v) >= 0;
+		}
+
+		void add(char v) {
+			if (bits != null) {
+				long mask = 1L << v;
+				if ((bits[v >>> 6] & mask) == 0) {
+					bits[v >>> 6] |= mask;
+					cardinality++;
+				}
+				return;
+			}
+			int pos = cardinality > 0 && array[cardinality - 1] < v ? -cardinality - 1 :
+				Arrays.binarySearch(array, 0, cardinality, v);
+			if (pos >= 0)
+				return;
+			if (cardinality == arrayMaxSize) {
+				toBitmap();
+				add(v);
+				return;
+			}
+			pos = -pos - 1;
+			if (cardinality == array.length)
+				array = Arrays.copyOf(array, Math.min(arrayMaxSize, cardinality * 2));
+			System.arraycopy(array, pos, array, pos + 1, cardinality - pos);
+			array[pos] = v;
+			cardinality++;
+		}
+
+		void toBitmap() {
+			if (bits != null)
+				return;
+			bits = new long[bitmapWords];
+			for (int i = 0; i < cardinality; i++)
+				bits[array[i] >>> 6] |= 1L << array[i];
+			array = null;
+		}
+
+		void recount() {
+			int ret = 0;
+			for (long word : bits)
+				ret += Long.bitCount(word);
+			cardinality = ret;
+		}
+
+		/**
+		 * Turns sparse bitmap back into array.
+		 */
+		void optimize() {
+			if (bits == null || cardinality > arrayMaxSize)
+				return;
+			char[] values = new char[Math.max(4, cardinality)];
+			int pos = 0;
+			for (int w = 0; w < bitmapWords; w++) {
+				long word = bits[w];
+				while (word != 0) {
+					values[pos++] = (char)((w << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			array = values;
+			bits = null;
+		}
+
+		Container copy() {
+			Container ret = new Container();
+			ret.cardinality = cardinality;
+			ret.array = array == null ? null : array.clone();
+			ret.bits = bits == null ? null : bits.clone();
+			return ret;
+		}
+
+		static Container and(Container a, Container b) {
+			Container ret = new Container();
+			if (a.bits != null && b.bits != null) {
+				ret.array = null;
+				ret.bits = new long[bitmapWords];
+				for (int w = 0; w < bitmapWords; w++)
+					ret.bits[w] = a.bits[w] & b.bits[w];
+				ret.recount();
+				ret.optimize();
+				return ret;
+			}
+			if (a.bits != null) {
+				Container t = a;
+				a = b;
+				b = t;
+			}
+			// a is array here
+			ret.array = new char[Math.max(4, a.cardinality)];
+			for (int i = 0; i < a.cardinality; i++)
+				if (b.contains(a.array[i]))
+					ret.array[ret.cardinality++] = a.array[i];
+			return ret;
+		}
+
+		static Container or(Container a, Container b) {
+			if (a.bits == null && b.bits == null && a.cardinality + b.cardinality <= arrayMaxSize) {
+				Container ret = new Container();
+				ret.array = new char[Math.max(4, a.cardinality + b.cardinality)];
+				int i = 0;
+				int j = 0;
+				while (i < a.cardinality || j < b.cardinality) {
+					char v;
+					if (j >= b.cardinality || (i < a.cardinality && a.array[i] < b.array[j])) {
+						v = a.array[i++];
+					} else if (i >= a.cardinality || a.array[i] > b.array[j]) {
+						v = b.array[j++];
+					} else {
+						v = a.array[i++];
+						j++;
+					}
+					ret.array[ret.cardinality++] = v;
+				}
+				return ret;
+			}
+			Container ret = a.copy();
+			ret.toBitmap();
+			if (b.bits != null) {
+				for (int w = 0; w < bitmapWords; w++)
+					ret.bits[w] |= b.bits[w];
+			} else {
+				for (int i = 0; i < b.cardinality; i++)
+					ret.bits[b.array[i] >>> 6] |= 1L << b.array[i];
+			}
+			ret.recount();
+			ret.optimize();
+			return ret;
+		}
+
+		static Container andNot(Container a, Container b) {
+			Container ret = new Container();
+			if (a.bits == null) {
+				ret.array = new char[Math.max(4, a.cardinality)];
+				for (int i = 0; i < a.cardinality; i++)
+					if (!b.contains(a.array[i]))
+						ret.array[ret.cardinality++] = a.array[i];
+				return ret;
+			}
+			ret.array = null;
+			ret.bits = a.bits.clone();
+			if (b.bits != null) {
+				for (int w = 0; w < bitmapWords; w++)
+					ret.bits[w] &= ~b.bits[w];
+			} else {
+				for (int i = 0; i < b.cardinality; i++)
+					ret.bits[b.array[i] >>> 6] &= ~(1L << b.array[i]);
+			}
+			ret.recount();
+			ret.optimize();
+			return ret;
+		}
+	}
+}
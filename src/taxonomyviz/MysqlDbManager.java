@@ -1,9 +1,15 @@
 package taxonomyviz;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import util.db.MysqlConn;
 
 public class MysqlDbManager {
 	public static final String TBL_TAX_INDEX = "taxonomy";
+	public static final String TBL_TAX_LAYERS = "taxonomy_layers";
+	public static final String TBL_TRACKS = "tracks";
+	public static final String TBL_TRACK_ITEMS = "track_items";
 	
 	public static MysqlConn conn() {
 		return MysqlConn.get();
@@ -11,25 +17,127 @@ public class MysqlDbManager {
 	
 	public static MysqlConn.Batch createTaxIndexBatch() throws Exception {
 		MysqlConn conn = MysqlConn.get();
-		if (!conn.checkTable(TBL_TAX_INDEX)) {
+		createTaxIndexTable(conn);
+		return createTaxIndexBatch(conn);
+	}
+
+	/**
+	 * @param conn connection batch is bound to (table has to exist already)
+	 */
+	public static MysqlConn.Batch createTaxIndexBatch(MysqlConn conn) throws Exception {
+		return createTaxIndexBatch(conn, TBL_TAX_INDEX);
+	}
+
+	/**
+	 * @param table taxonomy table or its staging copy
+	 */
+	public static MysqlConn.Batch createTaxIndexBatch(MysqlConn conn, String table) throws Exception {
+		return conn.execBatch("insert into " + table + " (taxid, parid, title, hidden, taxrank, "
+				+ "layer, lpos, ind, maxind, path, size, descendants, leaves, height) "
+				+ "values (?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+	}
+
+	public static void createTaxIndexTable(MysqlConn conn) throws Exception {
+		createTaxIndexTable(conn, TBL_TAX_INDEX);
+	}
+
+	public static void createTaxIndexTable(MysqlConn conn, String table) throws Exception {
+		if (!conn.checkTable(table)) {
             conn.execSql("" +
-                    "create table " + TBL_TAX_INDEX + " (" +
+                    "create table " + table + " (" +
                     "  taxid integer primary key, " +
                     "  parid integer, " +
                     "  title varchar(255), " +
                     "  hidden tinyint, " +
+                    "  taxrank varchar(32), " +
                     "  layer integer, " +
                     "  lpos integer, " +
                     "  ind integer, " +
                     "  maxind integer, " +
                     "  path varchar(255), " +
                     "  size integer, " +
-                    "  index (parid), " +
+                    "  descendants integer, " +
+                    "  leaves integer, " +
+                    "  height integer, " +
+                    "  index (parid, descendants), " +
                     "  index (layer, lpos), " +
-                    "  index (ind) " +
+                    "  index (ind), " +
+                    "  index (taxrank, ind) " +
                     ")");
         }
-		return conn.execBatch("insert into " + TBL_TAX_INDEX + " (taxid, parid, title, hidden, "
-				+ "layer, lpos, ind, maxind, path, size) values (?,?,?,?,?,?,?,?,?,?)");
+	}
+
+	public static MysqlConn.Batch createTaxLayersBatch() throws Exception {
+		return createTaxLayersBatch(MysqlConn.get(), TBL_TAX_LAYERS);
+	}
+
+	public static MysqlConn.Batch createTaxLayersBatch(MysqlConn conn, String table) throws Exception {
+		if (!conn.checkTable(table)) {
+			conn.execSql("" +
+					"create table " + table + " (" +
+					"  layer integer primary key, " +
+					"  breadth integer " +
+					")");
+		}
+		return conn.execBatch("insert into " + table + " (layer, breadth) values (?,?)");
+	}
+
+	/**
+	 * Replaces tables by their staging copies (table name plus suffix) in one
+	 * RENAME TABLE statement, so readers see either all old or all new tables.
+	 * Old tables are dropped afterwards.
+	 */
+	public static void replaceWithStaging(MysqlConn conn, String stagingSuffix, 
+			String... tables) throws Exception {
+		StringBuilder renames = new StringBuilder();
+		List<String> oldTables = new ArrayList<String>();
+		for (String table : tables) {
+			if (renames.length() > 0)
+				renames.append(", ");
+			if (conn.checkTable(table)) {
+				String oldTable = table + "_old";
+				conn.dropTableIfExists(oldTable);
+				renames.append(table).append(" to ").append(oldTable).append(", ");
+				oldTables.add(oldTable);
+			}
+			renames.append(table).append(stagingSuffix).append(" to ").append(table);
+		}
+		conn.execSql("rename table " + renames);
+		conn.dropTableIfExists(oldTables.toArray(new String[oldTables.size()]));
+	}
+
+	/**
+	 * Track items are addressed by ind of their tax node, so every track
+	 * keeps version of taxonomy its inds belong to and items aren't read
+	 * when it differs from current one. Taxonomy rebuild re-keys items of
+	 * current tracks (see TaxTreeLoader.rebuildTaxTree).
+	 */
+	public static void createTrackTables() throws Exception {
+		MysqlConn conn = MysqlConn.get();
+		if (!conn.checkTable(TBL_TRACKS)) {
+			conn.execSql("" +
+					"create table " + TBL_TRACKS + " (" +
+					"  track_id integer primary key auto_increment, " +
+					"  name varchar(255), " +
+					"  user varchar(255), " +
+					"  fields text, " +
+					"  taxonomy_version varchar(64) " +
+					")");
+		} else if (conn.loadSingle("show columns from " + TBL_TRACKS + " like 'taxonomy_version'",
+				MysqlConn.STRING_LOADER) == null) {
+			// Tracks stored before versioning are refused until they are reloaded
+			conn.execSql("alter table " + TBL_TRACKS + " add column taxonomy_version varchar(64)");
+		}
+		if (!conn.checkTable(TBL_TRACK_ITEMS)) {
+			conn.execSql("" +
+					"create table " + TBL_TRACK_ITEMS + " (" +
+					"  track_id integer, " +
+					"  ind integer, " +
+					"  seq integer, " +
+					"  taxid integer, " +
+					"  data text, " +
+					"  primary key (track_id, ind, seq) " +
+					")");
+		}
 	}
 }
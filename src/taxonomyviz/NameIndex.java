@@ -0,0 +1,260 @@
+package taxonomyviz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Name to taxid index covering all name classes of names.dmp (scientific
+ * names, synonyms, common names, misspellings...). Names are normalized and
+ * kept only as 64-bit hashes in open-addressing table, one slot per
+ * (name, taxid) pair, so one name may resolve to several taxids. Since names
+ * themselves aren't kept, two names with the same hash aren't told apart and
+ * lookup may return taxids of another name (chance is about size / 2^64 per
+ * lookup); callers which can check the name against node title should do
+ * it (see GenomeTaxonomyJoin). Index is filled only by build or load and is
+ * read-only afterwards.
+ */
+public class NameIndex {
+	public static final String SCIENTIFIC_NAME = "scientific name";
+	private static final int fileMagic = 0x4e414d31;
+	private static final long emptyKey = 0;
+
+	private final List<String> nameClasses = new ArrayList<String>();
+	private long[] keys;
+	private int[] taxids;
+	private byte[] classes;
+	private int size = 0;
+
+	NameIndex() {
+		this(1 << 16);
+	}
+
+	private NameIndex(int expectedSize) {
+		nameClasses.add(SCIENTIFIC_NAME);
+		allocate(expectedSize);
+	}
+
+	public static void main(String[] args) throws Exception {
+		long time = System.currentTimeMillis();
+		NameIndex index = build(TaxTreeLoader.openTaxDumpEntry("names.dmp"));
+		System.out.println("Names: " + index.size() + ", classes: " + index.nameClasses);
+		System.out.println("Build time: " + (System.currentTimeMillis() - time) + " ms");
+		for (String name : args)
+			System.out.println(name + "  =>  " + Arrays.toString(index.getTaxIds(name)));
+	}
+
+	/**
+	 * Loads index from names.dmp stream (stream is closed at the end).
+	 */
+	public static NameIndex build(InputStream namesDmp) throws Exception {
+		NameIndex ret = new NameIndex(1 << 22);
+		BufferedReader br = new BufferedReader(new InputStreamReader(namesDmp));
+		try {
+			while (true) {
+				String l = br.readLine();
+				if (l == null)
+					break;
+				String[] parts = TaxTreeLoader.splitDmpLine(l);
+				if (parts == null)
+					continue;
+				if (parts.length != 4)
+					throw new IllegalStateException("Wrong line format: [" + l + "]");
+				int taxId = Integer.parseInt(parts[0]);
+				ret.add(parts[1], taxId, parts[3]);
+				if (parts[2].length() > 0 && !parts[2].equals(parts[1]))
+					ret.add(parts[2], taxId, parts[3]);
+			}
+		} finally {
+			br.close();
+		}
+		return ret;
+	}
+
+	public static NameIndex load(File file) throws Exception {
+		DataInputStream is = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 1 << 16));
+		try {
+			if (is.readInt() != fileMagic)
+				throw new IllegalStateException("Wrong format of name index file: " + file);
+			int classCount = is.readInt();
+			List<String> fileClasses = new ArrayList<String>();
+			for (int i = 0; i < classCount; i++)
+				fileClasses.add(is.readUTF());
+			int entries = is.readInt();
+			NameIndex ret = new NameIndex(entries);
+			ret.nameClasses.clear();
+			ret.nameClasses.addAll(fileClasses);
+			for (int i = 0; i < entries; i++) {
+				long key = is.readLong();
+				int taxId = is.readInt();
+				byte nameClass = is.readByte();
+				ret.put(key, taxId, nameClass);
+			}
+			return ret;
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Writes only occupied slots, table is rebuilt on loading.
+	 */
+	public void save(File file) throws Exception {
+		DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		try {
+			os.writeInt(fileMagic);
+			os.writeInt(nameClasses.size());
+			for (String nameClass : nameClasses)
+				os.writeUTF(nameClass);
+			os.writeInt(size);
+			for (int slot = 0; slot < keys.length; slot++) {
+				if (keys[slot] == emptyKey)
+					continue;
+				os.writeLong(keys[slot]);
+				os.writeInt(taxids[slot]);
+				os.writeByte(classes[slot]);
+			}
+		} finally {
+			os.close();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	void add(String name, int taxId, String nameClass) {
+		int classPos = nameClasses.indexOf(nameClass);
+		if (classPos < 0) {
+			if (nameClasses.size() >= Byte.MAX_VALUE)
+				throw new IllegalStateException("Too many name classes: " + nameClasses);
+			classPos = nameClasses.size();
+			nameClasses.add(nameClass);
+		}
+		put(hash(normalize(name)), taxId, (byte)classPos);
+	}
+
+	/**
+	 * @return distinct taxids having given name (or name with the same hash)
+	 * in any name class, taxids where it's scientific name go first
+	 */
+	public int[] getTaxIds(String name) {
+		long key = hash(normalize(name));
+		int mask = keys.length - 1;
+		int[] ret = new int[4];
+		int count = 0;
+		int scientificCount = 0;
+		for (int slot = slot(key); keys[slot] != emptyKey; slot = (slot + 1) & mask) {
+			if (keys[slot] != key)
+				continue;
+			int taxId = taxids[slot];
+			boolean found = false;
+			for (int i = 0; i < count && !found; i++)
+				found = ret[i] == taxId;
+			if (found)
+				continue;
+			if (count == ret.length)
+				ret = Arrays.copyOf(ret, count * 2);
+			if (classes[slot] == 0) {
+				ret[count] = ret[scientificCount];
+				ret[scientificCount++] = taxId;
+			} else {
+				ret[count] = taxId;
+			}
+			count++;
+		}
+		return Arrays.copyOf(ret, count);
+	}
+
+	/**
+	 * @return first resolved taxid (preferring scientific names) or -1
+	 */
+	public int getTaxId(String name) {
+		int[] ret = getTaxIds(name);
+		return ret.length == 0 ? -1 : ret[0];
+	}
+
+	public static String normalize(String name) {
+		StringBuilder ret = new StringBuilder(name.length());
+		boolean space = false;
+		for (int i = 0; i < name.length(); i++) {
+			char ch = name.charAt(i);
+			if (Character.isWhitespace(ch) || ch == '_') {
+				space = ret.length() > 0;
+				continue;
+			}
+			if (space) {
+				ret.append(' ');
+				space = false;
+			}
+			ret.append(Character.toLowerCase(ch));
+		}
+		return ret.toString();
+	}
+
+	private static long hash(String normalizedName) {
+		// 64-bit FNV-1a
+		long ret = 0xcbf29ce484222325L;
+		for (int i = 0; i < normalizedName.length(); i++) {
+			ret ^= normalizedName.charAt(i);
+			ret *= 0x100000001b3L;
+		}
+		return ret == emptyKey ? 1 : ret;
+	}
+
+	private int slot(long key) {
+		long mixed = key ^ (key >>> 29);
+		mixed *= 0xbf58476d1ce4e5b9L;
+		return (int)(mixed ^ (mixed >>> 32)) & (keys.length - 1);
+	}
+
+	private void allocate(int expectedSize) {
+		int capacity = 16;
+		while (capacity * 0.7 < expectedSize)
+			capacity <<= 1;
+		keys = new long[capacity];
+		taxids = new int[capacity];
+		classes = new byte[capacity];
+	}
+
+	private void put(long key, int taxId, byte nameClass) {
+		if (size + 1 > keys.length * 0.7)
+			rehash();
+		int mask = keys.length - 1;
+		int slot = slot(key);
+		for (; keys[slot] != emptyKey; slot = (slot + 1) & mask) {
+			if (keys[slot] == key && taxids[slot] == taxId) {
+				if (nameClass == 0)
+					classes[slot] = nameClass;
+				return;
+			}
+		}
+		keys[slot] = key;
+		taxids[slot] = taxId;
+		classes[slot] = nameClass;
+		size++;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldTaxIds = taxids;
+		byte[] oldClasses = classes;
+		allocate(oldKeys.length);
+		size = 0;
+		for (int slot = 0; slot < oldKeys.length; slot++)
+			if (oldKeys[slot] != emptyKey)
+				put(oldKeys[slot], oldTaxIds[slot], oldClasses[slot]);
+	}
+}
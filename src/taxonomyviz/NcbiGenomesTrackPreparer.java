@@ -6,6 +6,7 @@ import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -63,6 +64,33 @@ public class NcbiGenomesTrackPreparer {
 	};
 
 	public static void main(String[] args) throws Exception {
+		Set<String> classificationStat = new TreeSet<String>();
+		List<Object> ret = parseGenomes(classificationStat);
+		System.out.println(ret.size());
+		PrintWriter pw = new PrintWriter(classificationFile);
+		try {
+			for (String value : classificationStat)
+				pw.println(value);
+		} finally {
+			pw.close();
+		}
+	}
+
+	public static List<ColumnDescription> getColumns() {
+		return new ArrayList<ColumnDescription>(Arrays.asList(columns));
+	}
+
+	public static List<String> getColumnIds() {
+		List<String> ret = new ArrayList<String>();
+		for (ColumnDescription cd : columns)
+			ret.add(cd.id);
+		return ret;
+	}
+
+	/**
+	 * @return rows of all genome reports as maps from column id to typed value
+	 */
+	public static List<Object> parseGenomes(Set<String> classificationStat) throws Exception {
 		Map<String, ColumnDescription> columnHash = new HashMap<String, ColumnDescription>();
 		for (ColumnDescription cd : columns) {
 			columnHash.put(cd.name, cd);
@@ -71,7 +99,6 @@ public class NcbiGenomesTrackPreparer {
 					columnHash.put(alias, cd);
 		}
 		List<Object> ret = new ArrayList<Object>();
-		Set<String> classificationStat = new TreeSet<String>();
 		ZipInputStream zis = new ZipInputStream(new FileInputStream(inputZip));
 		try {
 			while (true) {
@@ -85,14 +112,7 @@ public class NcbiGenomesTrackPreparer {
 		} finally {
 			zis.close();
 		}
-		System.out.println(ret.size());
-		PrintWriter pw = new PrintWriter(classificationFile);
-		try {
-			for (String value : classificationStat)
-				pw.println(value);
-		} finally {
-			pw.close();
-		}
+		return ret;
 	}
 	
 	private static void parseFile(String fileName, BufferedReader br, 
@@ -0,0 +1,131 @@
+package taxonomyviz;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Count/sum/min/max of track values rolled up to every ancestor of every
+ * track item. Arrays are addressed by pre-order position (see TaxTreeIndex).
+ */
+public class SubtreeAggregates {
+	public static final List<String> fields = Arrays.asList("count", "sum", "min", "max", "mean");
+
+	public final TaxTreeIndex index;
+	public final int[] counts;
+	public final double[] sums;
+	public final double[] mins;
+	public final double[] maxs;
+	public int unresolved = 0;
+
+	private SubtreeAggregates(TaxTreeIndex index) {
+		this.index = index;
+		int size = index.size();
+		counts = new int[size];
+		sums = new double[size];
+		mins = new double[size];
+		maxs = new double[size];
+		Arrays.fill(mins, Double.POSITIVE_INFINITY);
+		Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: SubtreeAggregates <track.json> [<numeric field>]");
+			return;
+		}
+		File trackFile = new File(args[0]);
+		String field = args.length > 1 ? args[1] : null;
+		TaxTreeIndex index = TaxTreeLoader.getTaxIndex();
+		Track track = new ObjectMapper().readValue(trackFile, Track.class);
+		long time = System.currentTimeMillis();
+		SubtreeAggregates aggr = rollUp(index, track, field);
+		System.out.println("Roll-up time: " + (System.currentTimeMillis() - time) + " ms");
+		if (aggr.unresolved > 0)
+			System.out.println("Items with unknown taxid: " + aggr.unresolved);
+		String name = trackFile.getName();
+		if (name.endsWith(".json"))
+			name = name.substring(0, name.length() - 5);
+		new ObjectMapper().writeValue(new File(trackFile.getParentFile(), name + "_rollup.json"),
+				aggr.toTrack(track.name + " (roll-up)", track.user));
+	}
+
+	/**
+	 * Aggregates numeric field of track items over all subtrees. Items without
+	 * value of the field are skipped. If field is null every item is counted
+	 * with value 1.
+	 */
+	public static SubtreeAggregates rollUp(TaxTreeIndex index, Track track, String field) {
+		SubtreeAggregates ret = new SubtreeAggregates(index);
+		for (Object obj : track.data) {
+			@SuppressWarnings("unchecked")
+			Map<String, Object> item = (Map<String, Object>)obj;
+			Number taxId = (Number)item.get("taxid");
+			int ind = taxId == null ? -1 : index.getInd(taxId.intValue());
+			if (ind < 0) {
+				ret.unresolved++;
+				continue;
+			}
+			double value = 1;
+			if (field != null) {
+				Object fieldValue = item.get(field);
+				if (!(fieldValue instanceof Number))
+					continue;
+				value = ((Number)fieldValue).doubleValue();
+			}
+			ret.add(ind, 1, value, value, value);
+		}
+		// Children always follow their parent in pre-order, so single backward
+		// sweep delivers complete subtree values to every parent.
+		for (int ind = index.size() - 1; ind > 0; ind--) {
+			if (ret.counts[ind] == 0)
+				continue;
+			ret.add(index.getParent(ind), ret.counts[ind], ret.sums[ind], ret.mins[ind], ret.maxs[ind]);
+		}
+		return ret;
+	}
+
+	private void add(int ind, int count, double sum, double min, double max) {
+		counts[ind] += count;
+		sums[ind] += sum;
+		if (min < mins[ind])
+			mins[ind] = min;
+		if (max > maxs[ind])
+			maxs[ind] = max;
+	}
+
+	public double getMean(int ind) {
+		return counts[ind] == 0 ? 0 : sums[ind] / counts[ind];
+	}
+
+	/**
+	 * @return derived track with an item for every node having at least one
+	 * value in its subtree
+	 */
+	public Track toTrack(String name, String user) {
+		Track ret = new Track();
+		ret.name = name;
+		ret.user = user;
+		ret.fields = fields;
+		List<Object> data = new ArrayList<Object>();
+		ret.data = data;
+		for (int ind = 0; ind < counts.length; ind++) {
+			if (counts[ind] == 0)
+				continue;
+			Map<String, Object> item = new LinkedHashMap<String, Object>();
+			item.put("taxid", index.getTaxId(ind));
+			item.put("count", counts[ind]);
+			item.put("sum", sums[ind]);
+			item.put("min", mins[ind]);
+			item.put("max", maxs[ind]);
+			item.put("mean", getMean(ind));
+			data.add(item);
+		}
+		return ret;
+	}
+}
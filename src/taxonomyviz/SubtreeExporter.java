@@ -0,0 +1,219 @@
+package taxonomyviz;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import util.db.MysqlConn;
+
+/**
+ * Streaming export of subtree into Newick or TSV (taxid, parent, title, rank,
+ * depth). Nodes are consumed in pre-order with their maxind, either from
+ * in-memory index or from one range scan over [ind, maxind] in database, and
+ * written immediately. Only path from subtree root to current node is kept
+ * in memory (Newick needs it to close parentheses), so memory doesn't depend
+ * on subtree size.
+ */
+public abstract class SubtreeExporter {
+	private static final int bufferSize = 1 << 20;
+	protected final Writer out;
+
+	protected SubtreeExporter(Writer out) {
+		this.out = out;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: SubtreeExporter <taxid> <newick|tsv> <output file> [db]");
+			return;
+		}
+		int taxId = Integer.parseInt(args[0]);
+		boolean fromDb = args.length > 3 && args[3].equals("db");
+		long time = System.currentTimeMillis();
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[2]),
+				StandardCharsets.UTF_8), bufferSize);
+		long count;
+		try {
+			SubtreeExporter exporter = create(args[1], writer);
+			count = fromDb ? exportFromDb(taxId, exporter) :
+				exportFromIndex(TaxTreeLoader.getTaxIndex(), taxId, exporter);
+		} finally {
+			writer.close();
+		}
+		System.out.println("Nodes exported: " + count + ", time: " +
+				(System.currentTimeMillis() - time) + " ms");
+	}
+
+	/**
+	 * @param format "newick" or "tsv"
+	 */
+	public static SubtreeExporter create(String format, Writer out) {
+		if (format.equalsIgnoreCase("newick"))
+			return new Newick(out);
+		if (format.equalsIgnoreCase("tsv"))
+			return new Tsv(out);
+		throw new IllegalArgumentException("Unsupported export format: " + format);
+	}
+
+	/**
+	 * @return number of exported nodes
+	 */
+	public static long exportFromIndex(TaxTreeIndex index, int taxId, SubtreeExporter exporter)
+			throws Exception {
+		int rootInd = index.getInd(taxId);
+		if (rootInd < 0)
+			throw new IllegalStateException("Tax node wasn't found for id=" + taxId);
+		int maxInd = index.getMaxInd(rootInd);
+		int rootLayer = index.getLayer(rootInd);
+		for (int ind = rootInd; ind <= maxInd; ind++) {
+			int parent = index.getParent(ind);
+			exporter.writeNode(ind, index.getMaxInd(ind), index.getTaxId(ind),
+					parent < 0 ? -1 : index.getTaxId(parent), index.getTitle(ind),
+					index.getRank(ind), index.getLayer(ind) - rootLayer);
+		}
+		exporter.finish();
+		return maxInd - rootInd + 1;
+	}
+
+	/**
+	 * Reads subtree by streaming range scan, so result set is not buffered
+	 * on client side.
+	 * @return number of exported nodes
+	 */
+	public static long exportFromDb(int taxId, final SubtreeExporter exporter) throws Exception {
+		MysqlConn conn = MysqlConn.get();
+		int[] root = conn.loadSingle("select ind, maxind, layer from " +
+				MysqlDbManager.TBL_TAX_INDEX + " where taxid=?", new MysqlConn.SqlLoader<int[]>() {
+			@Override
+			public int[] collectRow(ResultSet rs) throws Exception {
+				return new int[] {rs.getInt(1), rs.getInt(2), rs.getInt(3)};
+			}
+		}, taxId);
+		if (root == null)
+			throw new IllegalStateException("Tax node wasn't found for id=" + taxId);
+		final int rootLayer = root[2];
+		final long[] count = {0};
+		conn.processSql("select ind, maxind, taxid, parid, title, taxrank, layer from " +
+				MysqlDbManager.TBL_TAX_INDEX + " where ind between ? and ? order by ind",
+				new MysqlConn.SqlProcessor() {
+			@Override
+			public void processRow(ResultSet rs) throws Exception {
+				exporter.writeNode(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4),
+						rs.getString(5), rs.getString(6), rs.getInt(7) - rootLayer);
+				count[0]++;
+			}
+		}, root[0], root[1]);
+		exporter.finish();
+		return count[0];
+	}
+
+	/**
+	 * Nodes have to come in pre-order.
+	 * @param parentTaxId -1 for root of whole tree
+	 * @param rank null for "no rank"
+	 * @param depth distance from root of exported subtree
+	 */
+	public abstract void writeNode(int ind, int maxInd, int taxId, int parentTaxId, String title,
+			String rank, int depth) throws IOException;
+
+	public abstract void finish() throws IOException;
+
+	/**
+	 * Node labels are titles, quoted with single quotes when they contain
+	 * whitespace or Newick punctuation.
+	 */
+	public static class Newick extends SubtreeExporter {
+		private final Deque<Integer> openMaxInds = new ArrayDeque<Integer>();
+		private final Deque<String> openLabels = new ArrayDeque<String>();
+		private boolean afterOpen = true;
+
+		public Newick(Writer out) {
+			super(out);
+		}
+
+		@Override
+		public void writeNode(int ind, int maxInd, int taxId, int parentTaxId, String title,
+				String rank, int depth) throws IOException {
+			closeUntil(ind);
+			if (!afterOpen)
+				out.write(',');
+			String label = quote(title);
+			if (maxInd > ind) {
+				out.write('(');
+				openMaxInds.push(maxInd);
+				openLabels.push(label);
+				afterOpen = true;
+			} else {
+				out.write(label);
+				afterOpen = false;
+			}
+		}
+
+		@Override
+		public void finish() throws IOException {
+			closeUntil(Integer.MAX_VALUE);
+			out.write(";\n");
+			out.flush();
+		}
+
+		private void closeUntil(int ind) throws IOException {
+			while (!openMaxInds.isEmpty() && openMaxInds.peek() < ind) {
+				openMaxInds.pop();
+				out.write(')');
+				out.write(openLabels.pop());
+				afterOpen = false;
+			}
+		}
+
+		static String quote(String title) {
+			if (title == null)
+				return "";
+			boolean plain = true;
+			for (int i = 0; i < title.length() && plain; i++) {
+				char c = title.charAt(i);
+				plain = !Character.isWhitespace(c) && "()[]':;,".indexOf(c) < 0;
+			}
+			return plain ? title : "'" + title.replace("'", "''") + "'";
+		}
+	}
+
+	public static class Tsv extends SubtreeExporter {
+		private boolean headerWritten = false;
+
+		public Tsv(Writer out) {
+			super(out);
+		}
+
+		@Override
+		public void writeNode(int ind, int maxInd, int taxId, int parentTaxId, String title,
+				String rank, int depth) throws IOException {
+			if (!headerWritten) {
+				out.write("taxid\tparent\ttitle\trank\tdepth\n");
+				headerWritten = true;
+			}
+			out.write(String.valueOf(taxId));
+			out.write('\t');
+			if (parentTaxId >= 0)
+				out.write(String.valueOf(parentTaxId));
+			out.write('\t');
+			if (title != null)
+				out.write(title.replace('\t', ' ').replace('\n', ' '));
+			out.write('\t');
+			out.write(rank == null ? "no rank" : rank);
+			out.write('\t');
+			out.write(String.valueOf(depth));
+			out.write('\n');
+		}
+
+		@Override
+		public void finish() throws IOException {
+			out.flush();
+		}
+	}
+}
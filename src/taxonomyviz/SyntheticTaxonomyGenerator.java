@@ -0,0 +1,411 @@
+package taxonomyviz;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generator of synthetic NCBI taxonomy dump (names.dmp, nodes.dmp and
+ * merged.dmp in temp/taxdmp.zip) and genome reports (prokaryotes.txt,
+ * eukaryotes.txt and viruses.txt in input/ncbi_genomes/ncbi_genomes.zip)
+ * inside output folder. Files have the same layout and format as real ones,
+ * so TaxTreeLoader, NcbiGenomesTrackPreparer and everything built on them
+ * work unchanged when started from output folder. Same parameters and seed
+ * always give the same files.
+ *
+ * Tree shape is controlled by mixing ways of choosing parent of next node:
+ * one of few wide parents (like Bacteria with tens of thousands of children),
+ * previous node (long chains), node chosen proportionally to its number of
+ * children (power law fan-out) or uniformly random node. Depth never
+ * exceeds maxDepth.
+ */
+public class SyntheticTaxonomyGenerator {
+	private static final String[] syllables = {"ba", "cil", "lus", "mo", "nas", "strep", "to",
+		"coc", "cus", "my", "co", "bac", "te", "ri", "um", "sal", "mo", "nel", "la", "vi", "bri",
+		"o", "pseu", "do", "clos", "tri", "di", "ar", "chae", "the", "mus", "phi", "lo", "ae"};
+	private static final String[] statuses = {"Complete Genome", "Chromosome", "Scaffold", "Contig"};
+	private static final double[] statusWeights = {0.15, 0.05, 0.25, 0.55};
+	/** Fixed time of zip entries, so same seed gives byte-identical archives */
+	private static final long entryTime = 1262304000000L;
+	private static final String[] reportFiles = {"prokaryotes.txt", "eukaryotes.txt", "viruses.txt"};
+	private static final String[][] reportHeaders = {
+		{"#Organism/Name", "TaxID", "BioProject Accession", "BioProject ID", "Group", "SubGroup",
+			"Size (Mb)", "GC%", "Chromosomes/RefSeq", "Chromosomes/INSDC", "Plasmids/RefSeq",
+			"Plasmids/INSDC", "WGS", "Scaffolds", "Genes", "Proteins", "Release Date",
+			"Modify Date", "Status", "Center", "BioSample Accession", "Assembly Accession",
+			"Reference", "FTP Path", "Pubmed ID"},
+		{"#Organism/Name", "TaxID", "BioProject Accession", "BioProject ID", "Group", "SubGroup",
+			"Size (Mb)", "GC%", "Assembly Accession", "Chromosomes", "Organelles", "Plasmids",
+			"WGS", "Scaffolds", "Genes", "Proteins", "Release Date", "Modify Date", "Status",
+			"Center", "BioSample Accession"},
+		{"#Organism/Name", "TaxID", "BioProject Accession", "BioProject ID", "Group", "SubGroup",
+			"Size (Kb)", "GC%", "Host", "Segmemts", "Genes", "Proteins", "Release Date",
+			"Modify Date", "Status"}
+	};
+
+	/** Number of tax nodes including root */
+	public int nodes = 1000000;
+	public int maxDepth = 40;
+	/** Number of wide parents (children of root) */
+	public int wideParents = 3;
+	/** Share of nodes attached directly to one of wide parents */
+	public double wideShare = 0.05;
+	/** Share of nodes attached to previous node */
+	public double chainShare = 0.05;
+	/** Share of nodes attached to node chosen proportionally to its fan-out */
+	public double preferentialShare = 0.45;
+	/** Share of taxids skipped in numbering and listed in merged.dmp */
+	public double mergedShare = 0.01;
+	public int genomes = 100000;
+	/** Share of genome rows of nodes having merged taxid which use merged one */
+	public double oldTaxIdShare = 0.5;
+	/** Share of genome rows without taxid */
+	public double noTaxIdShare = 0.01;
+	public long seed = 1;
+
+	private int[] taxIds;
+	private int[] parents;
+	private int[] depths;
+	private int[] childCounts;
+	private int[] topAncestors;
+	/** Old taxid merged into node or 0 */
+	private int[] mergedTaxIds;
+	private List<int[]> merged;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: SyntheticTaxonomyGenerator <output folder> [<param>=<value> ...]");
+			System.out.println("Parameters: nodes, maxDepth, wideParents, wideShare, chainShare, " +
+					"preferentialShare, mergedShare, genomes, oldTaxIdShare, noTaxIdShare, seed");
+			return;
+		}
+		SyntheticTaxonomyGenerator generator = new SyntheticTaxonomyGenerator();
+		for (int i = 1; i < args.length; i++) {
+			int pos = args[i].indexOf('=');
+			if (pos < 0)
+				throw new IllegalArgumentException("Parameter should have form name=value: " + args[i]);
+			generator.setParam(args[i].substring(0, pos), args[i].substring(pos + 1));
+		}
+		long time = System.currentTimeMillis();
+		generator.generate(new File(args[0]));
+		System.out.println("Nodes: " + generator.nodes + ", max depth: " + generator.getMaxDepth() +
+				", max fan-out: " + generator.getMaxChildCount() + ", genomes: " + generator.genomes +
+				", generation time: " + (System.currentTimeMillis() - time) + " ms");
+	}
+
+	public void setParam(String name, String value) throws Exception {
+		Field field = getClass().getField(name);
+		if (field.getType() == int.class) {
+			field.setInt(this, Integer.parseInt(value));
+		} else if (field.getType() == long.class) {
+			field.setLong(this, Long.parseLong(value));
+		} else {
+			field.setDouble(this, Double.parseDouble(value));
+		}
+	}
+
+	public void generate(File outputDir) throws Exception {
+		if (wideParents < 0 || wideParents >= nodes || maxDepth < 2)
+			throw new IllegalArgumentException("Wrong parameters: nodes=" + nodes +
+					", wideParents=" + wideParents + ", maxDepth=" + maxDepth);
+		generateTree();
+		File dumpDir = new File(outputDir, "temp");
+		dumpDir.mkdirs();
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(new File(dumpDir, "taxdmp.zip")));
+		zos.setLevel(Deflater.BEST_SPEED);
+		try {
+			Writer w = new BufferedWriter(new OutputStreamWriter(zos, StandardCharsets.UTF_8), 1 << 16);
+			zos.putNextEntry(newEntry("names.dmp"));
+			writeNames(w);
+			w.flush();
+			zos.putNextEntry(newEntry("nodes.dmp"));
+			writeNodes(w);
+			w.flush();
+			zos.putNextEntry(newEntry("merged.dmp"));
+			for (int[] pair : merged)
+				w.write(pair[0] + "\t|\t" + pair[1] + "\t|\n");
+			w.flush();
+		} finally {
+			zos.close();
+		}
+		File genomeDir = new File(outputDir, "input/ncbi_genomes");
+		genomeDir.mkdirs();
+		zos = new ZipOutputStream(new FileOutputStream(new File(genomeDir, "ncbi_genomes.zip")));
+		zos.setLevel(Deflater.BEST_SPEED);
+		try {
+			writeGenomeReports(zos);
+		} finally {
+			zos.close();
+		}
+	}
+
+	public int getMaxDepth() {
+		int ret = 0;
+		for (int depth : depths)
+			ret = Math.max(ret, depth);
+		return ret;
+	}
+
+	public int getMaxChildCount() {
+		int ret = 0;
+		for (int count : childCounts)
+			ret = Math.max(ret, count);
+		return ret;
+	}
+
+	/**
+	 * Nodes are created in order of increasing taxid and every parent is
+	 * created before its children.
+	 */
+	private void generateTree() {
+		Random random = new Random(seed);
+		taxIds = new int[nodes];
+		parents = new int[nodes];
+		depths = new int[nodes];
+		childCounts = new int[nodes];
+		topAncestors = new int[nodes];
+		mergedTaxIds = new int[nodes];
+		merged = new ArrayList<int[]>();
+		// Every attachment adds parent and new node, so uniform choice from
+		// this array prefers nodes with many children
+		int[] attachments = new int[2 * nodes];
+		int attachmentCount = 0;
+		int nextTaxId = 1;
+		parents[0] = -1;
+		for (int node = 0; node < nodes; node++) {
+			if (node > 0 && random.nextDouble() < mergedShare) {
+				merged.add(new int[] {nextTaxId, nextTaxId + 1});
+				mergedTaxIds[node] = nextTaxId;
+				nextTaxId++;
+			}
+			taxIds[node] = nextTaxId++;
+			if (node == 0)
+				continue;
+			int parent;
+			double choice = random.nextDouble();
+			if (node <= wideParents) {
+				parent = 0;
+			} else if (choice < wideShare && wideParents > 0) {
+				parent = 1 + random.nextInt(wideParents);
+			} else if (choice < wideShare + chainShare) {
+				parent = node - 1;
+			} else if (choice < wideShare + chainShare + preferentialShare && attachmentCount > 0) {
+				parent = attachments[random.nextInt(attachmentCount)];
+			} else {
+				parent = random.nextInt(node);
+			}
+			while (depths[parent] >= maxDepth)
+				parent = parents[parent];
+			parents[node] = parent;
+			depths[node] = depths[parent] + 1;
+			topAncestors[node] = depths[node] == 1 ? node : topAncestors[parent];
+			childCounts[parent]++;
+			attachments[attachmentCount++] = parent;
+			attachments[attachmentCount++] = node;
+		}
+	}
+
+	private String getRank(int node, Random random) {
+		if (node == 0)
+			return "no rank";
+		if (childCounts[node] == 0 && depths[node] > 1)
+			return "species";
+		int level = depths[node] - 1;
+		// Realm and domain are skipped like in most of real tree
+		if (level + 2 < TaxRank.STANDARD.size() - 1 && random.nextDouble() < 0.8)
+			return TaxRank.STANDARD.get(level + 2);
+		return random.nextDouble() < 0.5 ? "clade" : "no rank";
+	}
+
+	/**
+	 * @return deterministic pseudo-latin name of node
+	 */
+	private String getTitle(int node) {
+		if (node == 0)
+			return "root";
+		int taxId = taxIds[node];
+		String word = makeWord(taxId, 3);
+		String ret = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+		if (childCounts[node] == 0 && depths[node] > 1) {
+			String genus = makeWord(taxIds[parents[node]], 3);
+			ret = Character.toUpperCase(genus.charAt(0)) + genus.substring(1) + " " +
+					makeWord(taxId * 31 + 7, 2) + " " + taxId;
+		}
+		return ret;
+	}
+
+	private static String makeWord(long value, int parts) {
+		StringBuilder ret = new StringBuilder();
+		long x = value * 0x9E3779B97F4A7C15L;
+		for (int i = 0; i < parts; i++) {
+			x ^= x >>> 29;
+			x *= 0xBF58476D1CE4E5B9L;
+			ret.append(syllables[(int)((x >>> 33) % syllables.length)]);
+		}
+		return ret.toString();
+	}
+
+	private void writeNames(Writer w) throws Exception {
+		Random random = new Random(seed + 1);
+		for (int node = 0; node < nodes; node++) {
+			String title = getTitle(node);
+			w.write(taxIds[node] + "\t|\t" + title + "\t|\t\t|\tscientific name\t|\n");
+			if (random.nextDouble() < 0.1)
+				w.write(taxIds[node] + "\t|\t" + title + " " + makeWord(node, 2) + "\t|\t\t|\tsynonym\t|\n");
+			if (random.nextDouble() < 0.02)
+				w.write(taxIds[node] + "\t|\t" + makeWord(taxIds[node] + 1, 2) + "\t|\t\t|\tgenbank common name\t|\n");
+		}
+	}
+
+	private void writeNodes(Writer w) throws Exception {
+		Random random = new Random(seed + 2);
+		for (int node = 0; node < nodes; node++) {
+			String rank = getRank(node, random);
+			boolean hidden = node > 0 && rank.equals("no rank") && random.nextDouble() < 0.3;
+			int parentTaxId = node == 0 ? taxIds[0] : taxIds[parents[node]];
+			int division = (node == 0 ? 0 : topAncestors[node]) % 12;
+			w.write(taxIds[node] + "\t|\t" + parentTaxId + "\t|\t" + rank + "\t|\t\t|\t" + division +
+					"\t|\t1\t|\t11\t|\t1\t|\t0\t|\t1\t|\t" + (hidden ? 1 : 0) + "\t|\t0\t|\t\t|\n");
+		}
+	}
+
+	/**
+	 * Species of every genome is chosen first (one int per genome), then
+	 * files are written one by one and rows are generated and streamed
+	 * straight into zip entry. Row values come from random seeded by genome
+	 * number, so they don't depend on order of generation.
+	 */
+	private void writeGenomeReports(ZipOutputStream zos) throws Exception {
+		Random random = new Random(seed + 3);
+		int[] leaves = new int[nodes];
+		int leafCount = 0;
+		for (int node = 1; node < nodes; node++)
+			if (childCounts[node] == 0)
+				leaves[leafCount++] = node;
+		if (leafCount == 0)
+			leaves[leafCount++] = 0;
+		int[] genomeNodes = new int[genomes];
+		for (int genome = 0; genome < genomes; genome++) {
+			// Few popular species get large part of genomes like in real reports
+			int leafPos = random.nextDouble() < 0.3 ? random.nextInt(Math.max(1, leafCount / 100)) :
+				random.nextInt(leafCount);
+			genomeNodes[genome] = leaves[leafPos];
+		}
+		leaves = null;
+		for (int file = 0; file < reportFiles.length; file++) {
+			zos.putNextEntry(newEntry(reportFiles[file]));
+			Writer w = new BufferedWriter(new OutputStreamWriter(zos, StandardCharsets.UTF_8), 1 << 16);
+			String[] header = reportHeaders[file];
+			w.write(join(Arrays.asList(header)));
+			List<String> values = new ArrayList<String>(header.length);
+			for (int genome = 0; genome < genomes; genome++) {
+				int node = genomeNodes[genome];
+				if (getReportFile(node) != file)
+					continue;
+				Random rowRandom = new Random((seed + 4) * 0x5DEECE66DL + genome);
+				Map<String, String> row = makeGenomeRow(node, genome, file, rowRandom);
+				values.clear();
+				for (String column : header) {
+					String value = row.get(column);
+					values.add(value == null ? "-" : value);
+				}
+				w.write(join(values));
+			}
+			w.flush();
+		}
+	}
+
+	private int getReportFile(int node) {
+		return node == 0 ? 0 : topAncestors[node] % reportFiles.length;
+	}
+
+	private Map<String, String> makeGenomeRow(int node, int genome, int file, Random random) {
+		Map<String, String> ret = new LinkedHashMap<String, String>();
+		ret.put("#Organism/Name", getTitle(node) + (random.nextBoolean() ? "" : " str. " + genome));
+		double choice = random.nextDouble();
+		if (choice < noTaxIdShare) {
+			// Such rows can only be resolved by name
+			ret.put("TaxID", "-");
+			ret.put("#Organism/Name", getTitle(node));
+		} else if (mergedTaxIds[node] != 0 && random.nextDouble() < oldTaxIdShare) {
+			// Old taxid resolves to this node through merged.dmp
+			ret.put("TaxID", String.valueOf(mergedTaxIds[node]));
+		} else {
+			ret.put("TaxID", String.valueOf(taxIds[node]));
+		}
+		int projectId = 100000 + genome;
+		ret.put("BioProject Accession", "PRJNA" + projectId);
+		ret.put("BioProject ID", String.valueOf(projectId));
+		int top = node == 0 ? 0 : topAncestors[node];
+		ret.put("Group", getTitle(top));
+		int sub = node;
+		while (depths[sub] > 2)
+			sub = parents[sub];
+		ret.put("SubGroup", depths[sub] == 2 ? getTitle(sub) : "Other");
+		double sizeMb = file == 1 ? 10 + random.nextDouble() * 3000 :
+			file == 2 ? 0.005 + random.nextDouble() * 0.3 : 0.5 + random.nextDouble() * 10;
+		ret.put("Size (Mb)", String.format(Locale.ROOT, "%.5f", sizeMb));
+		ret.put("Size (Kb)", String.format(Locale.ROOT, "%.3f", sizeMb * 1000));
+		ret.put("GC%", String.format(Locale.ROOT, "%.1f", 25 + random.nextDouble() * 50));
+		ret.put("Assembly Accession", String.format(Locale.ROOT, "GCA_%09d.1", genome + 1));
+		ret.put("Genes", String.valueOf(1 + random.nextInt(file == 2 ? 300 : 30000)));
+		ret.put("Proteins", String.valueOf(1 + random.nextInt(file == 2 ? 300 : 30000)));
+		ret.put("Scaffolds", String.valueOf(1 + random.nextInt(500)));
+		ret.put("Segmemts", String.valueOf(1 + random.nextInt(8)));
+		ret.put("Host", random.nextBoolean() ? "environment" : "vertebrates");
+		// Number of released genomes grows exponentially with time
+		int year = 2025 - (int)Math.min(30, -Math.log(1 - random.nextDouble()) * 4);
+		int month = 1 + random.nextInt(12);
+		int day = 1 + random.nextInt(28);
+		ret.put("Release Date", String.format(Locale.ROOT, "%04d/%02d/%02d", year, month, day));
+		int modYear = Math.min(2025, year + random.nextInt(3));
+		ret.put("Modify Date", String.format(Locale.ROOT, "%04d/%02d/%02d", modYear, month, day));
+		ret.put("Status", pickStatus(random, file));
+		ret.put("Center", "Center " + makeWord(genome % 1000, 2));
+		ret.put("BioSample Accession", "SAMN" + (1000000 + genome));
+		ret.put("FTP Path", getTitle(node).replace(' ', '_') + "/GCF_" + genome);
+		return ret;
+	}
+
+	private static String pickStatus(Random random, int file) {
+		if (file == 2)
+			return "Complete";
+		double choice = random.nextDouble();
+		for (int i = 0; i < statuses.length; i++) {
+			choice -= statusWeights[i];
+			if (choice < 0)
+				return statuses[i];
+		}
+		return statuses[statuses.length - 1];
+	}
+
+	private static ZipEntry newEntry(String name) {
+		ZipEntry ret = new ZipEntry(name);
+		ret.setTime(entryTime);
+		return ret;
+	}
+
+	private static String join(List<String> values) {
+		StringBuilder ret = new StringBuilder();
+		for (String value : values) {
+			if (ret.length() > 0)
+				ret.append('\t');
+			ret.append(value);
+		}
+		return ret.append('\n').toString();
+	}
+}
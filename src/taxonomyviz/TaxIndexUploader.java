@@ -0,0 +1,144 @@
+package taxonomyviz;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import util.db.MysqlConn;
+
+/**
+ * Pipelined upload of prepared tree into taxonomy table. Rows are produced
+ * in pre-order by calling thread and passed in blocks (every block is a
+ * contiguous ind range) through bounded queue to several upload threads,
+ * each with its own connection and batch. Bounded queue keeps memory small
+ * and slows producer down when database is the bottleneck.
+ */
+public class TaxIndexUploader {
+	private static final int blockSize = 1000;
+	private static final int queueBlocks = 64;
+	private static final Object[][] endOfRows = new Object[0][];
+
+	/**
+	 * @param table taxonomy table or its staging copy, it has to exist and be empty
+	 * @return number of inserted rows
+	 */
+	public static int upload(TaxNode root, final String table, int connections) throws Exception {
+		final BlockingQueue<Object[][]> queue = new ArrayBlockingQueue<Object[][]>(queueBlocks);
+		ExecutorService executor = Executors.newFixedThreadPool(connections);
+		List<Future<long[]>> uploaders = new ArrayList<Future<long[]>>();
+		long time = System.currentTimeMillis();
+		try {
+			for (int i = 0; i < connections; i++) {
+				uploaders.add(executor.submit(new Callable<long[]>() {
+					@Override
+					public long[] call() throws Exception {
+						return consume(queue, table);
+					}
+				}));
+			}
+			QueueBatch producer = new QueueBatch(queue, uploaders);
+			int rows = TaxTreeLoader.insertTaxIndex(-1, "", root, producer);
+			producer.close();
+			long producerTime = System.currentTimeMillis() - time;
+			for (int i = 0; i < connections; i++)
+				producer.put(endOfRows);
+			long uploaded = 0;
+			for (int i = 0; i < connections; i++) {
+				long[] stat = uploaders.get(i).get();
+				uploaded += stat[0];
+				System.out.println("Upload connection " + (i + 1) + ": " + stat[0] + " rows in " +
+						stat[1] + " ms (" + rate(stat[0], stat[1]) + " rows/s)");
+			}
+			long totalTime = System.currentTimeMillis() - time;
+			System.out.println("Row production: " + rows + " rows in " + producerTime + " ms (" +
+					rate(rows, producerTime) + " rows/s), waited for full queue " +
+					producer.waitTime + " ms");
+			System.out.println("Upload over " + connections + " connections: " + uploaded +
+					" rows in " + totalTime + " ms (" + rate(uploaded, totalTime) + " rows/s)");
+			return rows;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return number of uploaded rows and time of upload
+	 */
+	private static long[] consume(BlockingQueue<Object[][]> queue, String table) throws Exception {
+		long time = System.currentTimeMillis();
+		long rows = 0;
+		MysqlConn conn = MysqlConn.create();
+		try {
+			MysqlConn.Batch batch = MysqlDbManager.createTaxIndexBatch(conn, table);
+			while (true) {
+				Object[][] block = queue.take();
+				if (block == endOfRows)
+					break;
+				for (Object[] row : block)
+					batch.addNextRow(row);
+				rows += block.length;
+			}
+			batch.close();
+		} finally {
+			conn.close();
+		}
+		return new long[] {rows, System.currentTimeMillis() - time};
+	}
+
+	private static long rate(long rows, long millis) {
+		return rows * 1000 / Math.max(1, millis);
+	}
+
+	/**
+	 * Collects rows into blocks and puts them into queue. While queue is full
+	 * upload threads are checked, so failure of any of them stops producer.
+	 */
+	private static class QueueBatch extends MysqlConn.Batch {
+		private final BlockingQueue<Object[][]> queue;
+		private final List<Future<long[]>> consumers;
+		private final List<Object[]> block = new ArrayList<Object[]>(blockSize);
+		long waitTime = 0;
+
+		QueueBatch(BlockingQueue<Object[][]> queue, List<Future<long[]>> consumers) {
+			this.queue = queue;
+			this.consumers = consumers;
+		}
+
+		@Override
+		public void addNextRow(Object[] row) throws Exception {
+			block.add(row);
+			if (block.size() >= blockSize)
+				flush();
+		}
+
+		@Override
+		public void close() throws Exception {
+			flush();
+		}
+
+		private void flush() throws Exception {
+			if (block.isEmpty())
+				return;
+			put(block.toArray(new Object[block.size()][]));
+			block.clear();
+		}
+
+		void put(Object[][] rows) throws Exception {
+			if (queue.offer(rows))
+				return;
+			long time = System.currentTimeMillis();
+			while (!queue.offer(rows, 100, TimeUnit.MILLISECONDS)) {
+				for (Future<long[]> consumer : consumers)
+					if (consumer.isDone())
+						consumer.get();
+			}
+			waitTime += System.currentTimeMillis() - time;
+		}
+	}
+}
@@ -10,11 +10,14 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 @JsonPropertyOrder({
     "taxid",
     "title",
+    "rank",
     "children"
 })
 public class TaxNode {
     public int taxid;
     public String title;
+    /** NCBI rank or null for "no rank" */
+    public String rank;
     public int hidden = 0;
     @JsonIgnore
     public int layer = 0;
@@ -24,7 +27,13 @@ public class TaxNode {
     public int ind = 0;
     @JsonIgnore
     public int maxind = 0;
+    @JsonIgnore
+    public int leaves = 0;
+    @JsonIgnore
+    public int height = 0;
     public List<TaxNode> children;
+    /** Id of chunk file with children of this node (only for chunk stubs) */
+    public String chunk;
 
     public TaxNode() {}
     
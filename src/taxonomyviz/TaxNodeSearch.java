@@ -2,8 +2,12 @@ package taxonomyviz;
 
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -55,6 +59,150 @@ public class TaxNodeSearch {
 		}, taxId);
 	}
 	
+	/**
+	 * @return at most k children of node with largest number of descendants
+	 * (uses (parid, descendants) index)
+	 */
+	public static List<TaxNode> getLargestChildren(int taxId, int k) throws Exception {
+		return MysqlConn.get().collectSql("select taxid,title,hidden,ind,maxind,leaves,height from " + 
+				MysqlDbManager.TBL_TAX_INDEX + " where parid=? order by descendants desc limit ?", 
+				new MysqlConn.SqlLoader<TaxNode>() {
+			@Override
+			public TaxNode collectRow(ResultSet rs) throws Exception {
+				TaxNode ret = new TaxNode(rs.getInt(1), rs.getString(2));
+				ret.hidden = rs.getInt(3);
+				ret.ind = rs.getInt(4);
+				ret.maxind = rs.getInt(5);
+				ret.leaves = rs.getInt(6);
+				ret.height = rs.getInt(7);
+				return ret;
+			}
+		}, taxId, k);
+	}
+
+	/**
+	 * @return at most k children of node with largest number of descendants
+	 * in genbank or full view (see getLargestChildren(TaxTreeView, int, int))
+	 */
+	public static List<TaxNode> getLargestChildren(int taxId, int k, boolean genbankOnly) throws Exception {
+		return getLargestChildren(getView(genbankOnly), taxId, k);
+	}
+
+	/**
+	 * In-memory counterpart of getLargestChildren(int, int), descendants are
+	 * counted in given view from its subtree ranges, so no db is needed.
+	 * @return at most k children of node with largest number of descendants
+	 * in given view (ind and maxind of returned nodes are full tree positions),
+	 * empty list if node is unknown or not visible in view
+	 */
+	public static List<TaxNode> getLargestChildren(final TaxTreeView view, int taxId, int k) {
+		int ind = view.getIndex().getInd(taxId);
+		List<TaxNode> ret = new ArrayList<TaxNode>();
+		if (ind < 0 || !view.isVisible(ind) || k <= 0)
+			return ret;
+		Comparator<Integer> bySize = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Integer.compare(view.getViewMaxInd(o1) - view.getViewInd(o1), 
+						view.getViewMaxInd(o2) - view.getViewInd(o2));
+			}
+		};
+		PriorityQueue<Integer> top = new PriorityQueue<Integer>(k, bySize);
+		for (int i = 0; i < view.getChildCount(ind); i++) {
+			top.add(view.getChild(ind, i));
+			if (top.size() > k)
+				top.poll();
+		}
+		List<Integer> inds = new ArrayList<Integer>(top);
+		Collections.sort(inds, Collections.reverseOrder(bySize));
+		for (int childInd : inds)
+			ret.add(view.getIndex().getNode(childInd));
+		return ret;
+	}
+
+	/**
+	 * @return nodes of one layer with lpos in [fromLpos, toLpos] ordered
+	 * left to right (uses (layer, lpos) index)
+	 */
+	public static List<TaxNode> getLayerNodes(int layer, int fromLpos, int toLpos) throws Exception {
+		return MysqlConn.get().collectSql("select taxid,title,hidden,lpos from " + 
+				MysqlDbManager.TBL_TAX_INDEX + " where layer=? and lpos between ? and ? order by lpos", 
+				new MysqlConn.SqlLoader<TaxNode>() {
+			@Override
+			public TaxNode collectRow(ResultSet rs) throws Exception {
+				TaxNode ret = new TaxNode(rs.getInt(1), rs.getString(2));
+				ret.hidden = rs.getInt(3);
+				ret.lpos = rs.getInt(4);
+				return ret;
+			}
+		}, layer, fromLpos, toLpos);
+	}
+
+	/**
+	 * @param genbankOnly if true nodes hidden in genbank are skipped and their
+	 * children are attached to nearest visible ancestor
+	 * @return in-memory view of current taxonomy snapshot (see TaxonomyHolder)
+	 */
+	public static TaxTreeView getView(boolean genbankOnly) throws Exception {
+		return TaxonomyHolder.get().getView(genbankOnly);
+	}
+
+	public static List<Integer> getPath(int taxId, boolean genbankOnly) throws Exception {
+		return getPath(getView(genbankOnly), taxId);
+	}
+
+	public static List<Integer> getPath(TaxTreeView view, int taxId) {
+		int ind = view.getIndex().getInd(taxId);
+		if (ind < 0)
+			throw new IllegalStateException("Tax node wasn't found for id=" + taxId);
+		List<Integer> ret = new ArrayList<Integer>();
+		for (ind = view.getVisibleNode(ind); ind >= 0; ind = view.getParent(ind))
+			ret.add(0, view.getIndex().getTaxId(ind));
+		return ret;
+	}
+
+	public static List<TaxNode> getChildren(int taxId, boolean genbankOnly) throws Exception {
+		return getChildren(getView(genbankOnly), taxId);
+	}
+
+	public static List<TaxNode> getChildren(TaxTreeView view, int taxId) {
+		int ind = view.getIndex().getInd(taxId);
+		if (ind < 0 || !view.isVisible(ind))
+			return new ArrayList<TaxNode>();
+		int childCount = view.getChildCount(ind);
+		List<TaxNode> ret = new ArrayList<TaxNode>(childCount);
+		for (int i = 0; i < childCount; i++)
+			ret.add(view.getIndex().getNode(view.getChild(ind, i)));
+		return ret;
+	}
+
+	public static NameIndex getNameIndex() throws Exception {
+		return TaxonomyHolder.get().nameIndex;
+	}
+
+	/**
+	 * @return taxids having given name as scientific name, synonym, common name
+	 * or any other name class of names.dmp (scientific matches go first)
+	 */
+	public static List<Integer> findTaxIds(String name) throws Exception {
+		List<Integer> ret = new ArrayList<Integer>();
+		for (int taxId : getNameIndex().getTaxIds(name))
+			ret.add(taxId);
+		return ret;
+	}
+
+	public static Map<String, List<Integer>> findTaxIds(List<String> names) throws Exception {
+		NameIndex index = getNameIndex();
+		Map<String, List<Integer>> ret = new LinkedHashMap<String, List<Integer>>();
+		for (String name : names) {
+			List<Integer> taxIds = new ArrayList<Integer>();
+			for (int taxId : index.getTaxIds(name))
+				taxIds.add(taxId);
+			ret.put(name, taxIds);
+		}
+		return ret;
+	}
+
 	//public static Map<String, Object> searchSubtree(List<Object> trackItems) {
 	//}
 
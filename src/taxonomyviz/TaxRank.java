@@ -0,0 +1,38 @@
+package taxonomyviz;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * NCBI rank names used for rank-collapsed projections of taxonomy. Nodes
+ * with "no rank" keep null in place of rank.
+ */
+public class TaxRank {
+	public static final String GENUS = "genus";
+	/** Standard ranks from top to bottom (realm and domain appear in newer dumps) */
+	public static final List<String> STANDARD = Arrays.asList("realm", "domain", "superkingdom",
+			"kingdom", "phylum", "class", "order", "family", GENUS, "species");
+
+	/**
+	 * @return rank as it's kept in tree (null for "no rank")
+	 */
+	public static String parse(String dmpRank) {
+		if (dmpRank == null || dmpRank.isEmpty() || dmpRank.equals("no rank"))
+			return null;
+		return dmpRank.intern();
+	}
+
+	/**
+	 * @return position of rank in STANDARD list or -1 for other ranks
+	 */
+	public static int getLevel(String rank) {
+		return rank == null ? -1 : STANDARD.indexOf(rank);
+	}
+
+	public static List<String> atOrAbove(String rank) {
+		int level = getLevel(rank);
+		if (level < 0)
+			throw new IllegalArgumentException("Rank is not standard: " + rank);
+		return STANDARD.subList(0, level + 1);
+	}
+}
@@ -0,0 +1,226 @@
+package taxonomyviz;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Flat in-memory form of taxonomy tree. All arrays are addressed by pre-order
+ * position (ind) assigned by TaxTreeLoader.prepareNodeIndeces, so subtree of
+ * node is always [ind, maxind] and parent always has smaller ind than child.
+ */
+public class TaxTreeIndex {
+	private final int[] taxids;
+	private final int[] parents;
+	private final int[] maxinds;
+	private final int[] layers;
+	private final int[] lposes;
+	private final int[] leaves;
+	private final int[] heights;
+	private final int[] layerBreadths;
+	private final byte[] hidden;
+	private final byte[] rankCodes;
+	private final String[] rankNames;
+	private final String[] titles;
+	private final int[] taxidToInd;
+
+	/**
+	 * @param root tree with node indeces already prepared
+	 */
+	public TaxTreeIndex(TaxNode root) {
+		int size = root.maxind + 1;
+		taxids = new int[size];
+		parents = new int[size];
+		maxinds = new int[size];
+		layers = new int[size];
+		lposes = new int[size];
+		leaves = new int[size];
+		heights = new int[size];
+		hidden = new byte[size];
+		titles = new String[size];
+		rankCodes = new byte[size];
+		// Code 0 is reserved for "no rank"
+		Map<String, Integer> rankToCode = new HashMap<String, Integer>();
+		int maxTaxId = 0;
+		Deque<TaxNode> stack = new ArrayDeque<TaxNode>();
+		parents[root.ind] = -1;
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			TaxNode node = stack.pop();
+			int ind = node.ind;
+			taxids[ind] = node.taxid;
+			maxinds[ind] = node.maxind;
+			layers[ind] = node.layer;
+			lposes[ind] = node.lpos;
+			leaves[ind] = node.leaves;
+			heights[ind] = node.height;
+			hidden[ind] = (byte)node.hidden;
+			titles[ind] = node.title;
+			if (node.rank != null) {
+				Integer code = rankToCode.get(node.rank);
+				if (code == null) {
+					code = rankToCode.size() + 1;
+					if (code > Byte.MAX_VALUE)
+						throw new IllegalStateException("Too many different ranks");
+					rankToCode.put(node.rank, code);
+				}
+				rankCodes[ind] = (byte)(int)code;
+			}
+			if (node.taxid > maxTaxId)
+				maxTaxId = node.taxid;
+			if (node.children != null)
+				for (TaxNode ch : node.children) {
+					parents[ch.ind] = ind;
+					stack.push(ch);
+				}
+		}
+		rankNames = new String[rankToCode.size() + 1];
+		for (Map.Entry<String, Integer> entry : rankToCode.entrySet())
+			rankNames[entry.getValue()] = entry.getKey();
+		taxidToInd = new int[maxTaxId + 1];
+		Arrays.fill(taxidToInd, -1);
+		int maxLayer = 0;
+		for (int ind = 0; ind < size; ind++) {
+			taxidToInd[taxids[ind]] = ind;
+			maxLayer = Math.max(maxLayer, layers[ind]);
+		}
+		layerBreadths = new int[maxLayer + 1];
+		for (int ind = 0; ind < size; ind++)
+			layerBreadths[layers[ind]]++;
+	}
+
+	public int size() {
+		return taxids.length;
+	}
+
+	/**
+	 * @return pre-order position of node or -1 if there is no such node
+	 */
+	public int getInd(int taxId) {
+		if (taxId < 0 || taxId >= taxidToInd.length)
+			return -1;
+		return taxidToInd[taxId];
+	}
+
+	public int getTaxId(int ind) {
+		return taxids[ind];
+	}
+
+	/**
+	 * @return pre-order position of parent or -1 for root
+	 */
+	public int getParent(int ind) {
+		return parents[ind];
+	}
+
+	public int getMaxInd(int ind) {
+		return maxinds[ind];
+	}
+
+	public int getLayer(int ind) {
+		return layers[ind];
+	}
+
+	public int getLpos(int ind) {
+		return lposes[ind];
+	}
+
+	/**
+	 * @return number of nodes in subtree excluding node itself
+	 */
+	public int getDescendantCount(int ind) {
+		return maxinds[ind] - ind;
+	}
+
+	public int getLeafCount(int ind) {
+		return leaves[ind];
+	}
+
+	/**
+	 * @return length of longest path from node down to leaf
+	 */
+	public int getHeight(int ind) {
+		return heights[ind];
+	}
+
+	public int getLayerCount() {
+		return layerBreadths.length;
+	}
+
+	/**
+	 * @return number of nodes in layer
+	 */
+	public int getLayerBreadth(int layer) {
+		return layerBreadths[layer];
+	}
+
+	public boolean isHidden(int ind) {
+		return hidden[ind] != 0;
+	}
+
+	public String getTitle(int ind) {
+		return titles[ind];
+	}
+
+	/**
+	 * @return rank of node or null for "no rank"
+	 */
+	public String getRank(int ind) {
+		return rankNames[rankCodes[ind]];
+	}
+
+	/**
+	 * @return code of node rank (0 for "no rank"), see getRankCode(String)
+	 */
+	public int getRankCode(int ind) {
+		return rankCodes[ind];
+	}
+
+	/**
+	 * @return code of rank or -1 if no node has such rank
+	 */
+	public int getRankCode(String rank) {
+		for (int code = 1; code < rankNames.length; code++)
+			if (rankNames[code].equals(rank))
+				return code;
+		return rank == null ? 0 : -1;
+	}
+
+	/**
+	 * @return number of rank codes including 0 for "no rank"
+	 */
+	public int getRankCodeCount() {
+		return rankNames.length;
+	}
+
+	/**
+	 * @return pre-order position of first child or -1 for leaf
+	 */
+	public int getFirstChild(int ind) {
+		return maxinds[ind] > ind ? ind + 1 : -1;
+	}
+
+	/**
+	 * @return pre-order position of next sibling or -1 for last child
+	 */
+	public int getNextSibling(int ind) {
+		int parent = parents[ind];
+		int next = maxinds[ind] + 1;
+		return parent >= 0 && next <= maxinds[parent] ? next : -1;
+	}
+
+	public TaxNode getNode(int ind) {
+		TaxNode ret = new TaxNode(taxids[ind], titles[ind]);
+		ret.hidden = hidden[ind];
+		ret.rank = rankNames[rankCodes[ind]];
+		ret.layer = layers[ind];
+		ret.lpos = lposes[ind];
+		ret.ind = ind;
+		ret.maxind = maxinds[ind];
+		ret.leaves = leaves[ind];
+		ret.height = heights[ind];
+		return ret;
+	}
+}
@@ -0,0 +1,214 @@
+package taxonomyviz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Drawing coordinates of every node of TaxTreeIndex together with bounding
+ * boxes of subtrees. Leaves are placed on consecutive positions in pre-order
+ * and every internal node is centered over its leaves (tidy layout), radial
+ * layout wraps the same positions around the root. Viewport queries use
+ * bounding boxes to skip invisible subtrees and collapse tiny ones.
+ */
+public class TaxTreeLayout {
+	private final TaxTreeIndex index;
+	private final boolean radial;
+	private final int[] leafStarts;
+	private final int leafCount;
+	private final float[] xs;
+	private final float[] ys;
+	private final float[] minXs;
+	private final float[] maxXs;
+	private final float[] minYs;
+	private final float[] maxYs;
+
+	private TaxTreeLayout(TaxTreeIndex index, boolean radial) {
+		this.index = index;
+		this.radial = radial;
+		int size = index.size();
+		leafStarts = new int[size + 1];
+		for (int ind = 0; ind < size; ind++)
+			leafStarts[ind + 1] = leafStarts[ind] + (index.getMaxInd(ind) == ind ? 1 : 0);
+		leafCount = leafStarts[size];
+		xs = new float[size];
+		ys = new float[size];
+		minXs = new float[size];
+		maxXs = new float[size];
+		minYs = new float[size];
+		maxYs = new float[size];
+	}
+
+	/**
+	 * @param radial if true nodes are placed on circles with radius equal to
+	 * layer, otherwise x is leaf position and y is layer
+	 * @param threads number of threads for parallel pass
+	 */
+	public static TaxTreeLayout compute(final TaxTreeIndex index, boolean radial,
+			int threads) throws Exception {
+		final TaxTreeLayout ret = new TaxTreeLayout(index, radial);
+		final int size = index.size();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+			int step = (size + threads - 1) / threads;
+			for (int start = 0; start < size; start += step) {
+				final int from = start;
+				final int to = Math.min(size, start + step);
+				tasks.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						for (int ind = from; ind < to; ind++)
+							ret.placeNode(ind);
+						return null;
+					}
+				}));
+			}
+			waitFor(tasks);
+			// Subtrees of root children are disjoint ind ranges, so bounding
+			// boxes inside them are collected independently.
+			tasks.clear();
+			for (int ch = index.getFirstChild(0); ch >= 0; ch = index.getNextSibling(ch)) {
+				final int subtreeRoot = ch;
+				tasks.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						ret.collectBounds(subtreeRoot);
+						return null;
+					}
+				}));
+			}
+			waitFor(tasks);
+			for (int ch = index.getFirstChild(0); ch >= 0; ch = index.getNextSibling(ch))
+				ret.mergeBounds(ch, 0);
+		} finally {
+			executor.shutdown();
+		}
+		return ret;
+	}
+
+	public static void main(String[] args) throws Exception {
+		TaxTreeIndex index = TaxTreeLoader.getTaxIndex();
+		long time = System.currentTimeMillis();
+		TaxTreeLayout layout = compute(index, args.length > 0 && args[0].equals("radial"),
+				Runtime.getRuntime().availableProcessors());
+		System.out.println("Layout time: " + (System.currentTimeMillis() - time) + " ms");
+		System.out.println("Leaves: " + layout.getLeafCount());
+		time = System.currentTimeMillis();
+		int[] visible = layout.query(0, 10, layout.getMinX(0), layout.getMaxX(0),
+				layout.getMinY(0), layout.getMaxY(0), layout.getLeafCount() / 2000f);
+		System.out.println("Overview nodes: " + visible.length + ", query time: " +
+				(System.currentTimeMillis() - time) + " ms");
+	}
+
+	private static void waitFor(List<Future<Object>> tasks) throws Exception {
+		for (Future<Object> task : tasks)
+			task.get();
+	}
+
+	private void placeNode(int ind) {
+		int leaves = leafStarts[index.getMaxInd(ind) + 1] - leafStarts[ind];
+		float pos = leafStarts[ind] + (leaves - 1) / 2f;
+		int layer = index.getLayer(ind);
+		if (radial) {
+			double angle = 2 * Math.PI * (pos + 0.5) / leafCount;
+			xs[ind] = (float)(layer * Math.cos(angle));
+			ys[ind] = (float)(layer * Math.sin(angle));
+		} else {
+			xs[ind] = pos;
+			ys[ind] = layer;
+		}
+		minXs[ind] = maxXs[ind] = xs[ind];
+		minYs[ind] = maxYs[ind] = ys[ind];
+	}
+
+	/**
+	 * Backward sweep over subtree merging bounding box of every node except
+	 * subtree root into its parent.
+	 */
+	private void collectBounds(int subtreeRoot) {
+		for (int ind = index.getMaxInd(subtreeRoot); ind > subtreeRoot; ind--)
+			mergeBounds(ind, index.getParent(ind));
+	}
+
+	private void mergeBounds(int ind, int parent) {
+		if (minXs[ind] < minXs[parent])
+			minXs[parent] = minXs[ind];
+		if (maxXs[ind] > maxXs[parent])
+			maxXs[parent] = maxXs[ind];
+		if (minYs[ind] < minYs[parent])
+			minYs[parent] = minYs[ind];
+		if (maxYs[ind] > maxYs[parent])
+			maxYs[parent] = maxYs[ind];
+	}
+
+	public TaxTreeIndex getIndex() {
+		return index;
+	}
+
+	public boolean isRadial() {
+		return radial;
+	}
+
+	public int getLeafCount() {
+		return leafCount;
+	}
+
+	public float getX(int ind) {
+		return xs[ind];
+	}
+
+	public float getY(int ind) {
+		return ys[ind];
+	}
+
+	public float getMinX(int ind) {
+		return minXs[ind];
+	}
+
+	public float getMaxX(int ind) {
+		return maxXs[ind];
+	}
+
+	public float getMinY(int ind) {
+		return minYs[ind];
+	}
+
+	public float getMaxY(int ind) {
+		return maxYs[ind];
+	}
+
+	/**
+	 * Returns nodes with layer in [minLayer, maxLayer] placed inside given
+	 * window. Subtrees with bounding box smaller than minExtent in both
+	 * dimensions are represented only by their top node.
+	 * @return inds of nodes in pre-order
+	 */
+	public int[] query(int minLayer, int maxLayer, float minX, float maxX, float minY,
+			float maxY, float minExtent) {
+		int[] ret = new int[1024];
+		int count = 0;
+		int size = index.size();
+		for (int ind = 0; ind < size; ) {
+			int next = index.getMaxInd(ind) + 1;
+			if (maxXs[ind] < minX || minXs[ind] > maxX || maxYs[ind] < minY || minYs[ind] > maxY) {
+				ind = next;
+				continue;
+			}
+			int layer = index.getLayer(ind);
+			if (layer >= minLayer && xs[ind] >= minX && xs[ind] <= maxX &&
+					ys[ind] >= minY && ys[ind] <= maxY) {
+				if (count == ret.length)
+					ret = Arrays.copyOf(ret, count * 2);
+				ret[count++] = ind;
+			}
+			boolean tiny = maxXs[ind] - minXs[ind] < minExtent && maxYs[ind] - minYs[ind] < minExtent;
+			ind = layer >= maxLayer || (tiny && layer >= minLayer) ? next : ind + 1;
+		}
+		return Arrays.copyOf(ret, count);
+	}
+}
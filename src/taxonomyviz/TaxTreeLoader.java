@@ -8,16 +8,24 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 import util.db.MysqlConn;
@@ -29,39 +37,297 @@ public class TaxTreeLoader {
 	private static final Pattern div = Pattern.compile(Pattern.quote("\t|\t"));
 	private static final String dataDirName = "data";
 	private static final String taxonomyFileName = "taxonomy.json";
+	private static final String compactTaxonomyFileName = "taxonomy_compact.json";
+	private static final String nameIndexFileName = "names.idx";
+	private static final String formatFileName = "taxonomy.format";
+	/** Format of taxonomy files, it's increased when files get new data (2: ranks) */
+	private static final int taxonomyFormat = 2;
+	/** Files published by rebuild, main taxonomy file goes last */
+	private static final String[] stagedFileNames = {nameIndexFileName, compactTaxonomyFileName, 
+		formatFileName, taxonomyFileName};
 	private static final String tempDirName = "temp";
-	private static final boolean removeHidden = false;
+	private static final String chunkDirName = "chunks";
+	private static final String chunkManifestFileName = "manifest.json";
+	private static final int defaultUploadConnections = 4;
+	/** Suffix of files and tables taxonomy is rebuilt into before they replace current ones */
+	private static final String stagingSuffix = "_staging";
+	private static final Object rebuildLock = new Object();
 	
 	public static void main(String[] args) throws Exception {
 		loadTaxTree();
+		if (args.length > 0 && args[0].equals("chunks")) {
+			int maxNodes = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+			long time = System.currentTimeMillis();
+			int chunks = exportChunks(getTaxIndex(), new File(dataDirName, chunkDirName), 
+					maxNodes, Runtime.getRuntime().availableProcessors());
+			System.out.println("Chunks: " + chunks + ", export time: " + 
+					(System.currentTimeMillis() - time) + " ms");
+		}
 	}
 
-	public static TaxNode getTaxTree() throws Exception {
+	/**
+	 * Loading, rebuilding and reading of taxonomy files are synchronized, so
+	 * concurrent callers never rebuild it twice or read partially written files.
+	 */
+	public static synchronized TaxNode getTaxTree() throws Exception {
 		loadTaxTree();
+		File compactFile = new File(dataDirName, compactTaxonomyFileName);
+		if (compactFile.exists())
+			return new ObjectMapper().readValue(compactFile, CompactTree.class).toTaxNode();
 		File taxFile = new File(dataDirName, taxonomyFileName);
 		return new ObjectMapper().readValue(taxFile, TaxNode.class);
 	}
-	
-	public static void loadTaxTree() throws Exception {
+
+	/**
+	 * @return identifier changing every time taxonomy is rebuilt
+	 */
+	public static synchronized String getTaxonomyVersion() throws Exception {
+		loadTaxTree();
+		return getFileVersion(new File(dataDirName, taxonomyFileName));
+	}
+
+	private static String getFileVersion(File taxFile) {
+		return Long.toHexString(taxFile.lastModified()) + "-" + Long.toHexString(taxFile.length());
+	}
+
+	/**
+	 * Reads tree, its version and name index under one lock, so all three
+	 * come from the same rebuild.
+	 */
+	public static synchronized TaxonomyFiles readTaxonomyFiles() throws Exception {
+		TaxonomyFiles ret = new TaxonomyFiles();
+		ret.version = getTaxonomyVersion();
+		ret.root = getTaxTree();
+		ret.nameIndex = loadNameIndex();
+		return ret;
+	}
+
+	public static TaxTreeIndex getTaxIndex() throws Exception {
+		return buildTaxIndex(getTaxTree());
+	}
+
+	public static TaxTreeIndex buildTaxIndex(TaxNode root) {
+		prepareNodeIndeces(root, 0, new TreeMap<Integer, Integer>(), -1);
+		return new TaxTreeIndex(root);
+	}
+
+	/**
+	 * Builds taxonomy files, name index and db tables from current (or freshly
+	 * downloaded) NCBI dump next to existing ones and replaces existing ones
+	 * only after whole rebuild succeeded. Readers aren't blocked while it runs
+	 * and failed rebuild leaves previous taxonomy in place. Items of stored
+	 * tracks are re-keyed to new inds as part of the same rebuild.
+	 */
+	public static void rebuildTaxTree(boolean downloadNewDump) throws Exception {
+		synchronized (rebuildLock) {
+			loadTaxTree();
+			String oldVersion = getTaxonomyVersion();
+			File dumpFile = getDumpFile();
+			File newDumpFile = null;
+			int rekeyedTracks;
+			try {
+				if (downloadNewDump) {
+					newDumpFile = new File(tempDirName, dumpFile.getName() + stagingSuffix);
+					download(ncbiFtpZipUrl, newDumpFile);
+					dumpFile = newDumpFile;
+				}
+				rekeyedTracks = buildTaxonomy(dumpFile, oldVersion);
+			} catch (Exception ex) {
+				discardStaging(newDumpFile);
+				throw ex;
+			}
+			synchronized (TaxTreeLoader.class) {
+				publishStaging(newDumpFile, oldVersion, rekeyedTracks);
+			}
+		}
+	}
+
+	/**
+	 * @return index of all names of names.dmp, it's loaded from data folder or
+	 * built and stored there
+	 */
+	public static synchronized NameIndex loadNameIndex() throws Exception {
+		File nameIndexFile = new File(dataDirName, nameIndexFileName);
+		if (nameIndexFile.exists())
+			return NameIndex.load(nameIndexFile);
+		NameIndex ret = NameIndex.build(openTaxDumpEntry("names.dmp"));
+		nameIndexFile.getParentFile().mkdirs();
+		// Not the staging name, rebuild may be writing that one without this lock
+		File tempFile = new File(dataDirName, nameIndexFileName + ".tmp");
+		ret.save(tempFile);
+		replaceFile(tempFile, nameIndexFile);
+		return ret;
+	}
+
+	private static void replaceFile(File source, File target) {
+		if (target.exists() && !target.delete())
+			throw new IllegalStateException("Can't delete file " + target);
+		if (!source.renameTo(target))
+			throw new IllegalStateException("Can't rename file " + source + " to " + target);
+	}
+
+	public static synchronized void loadTaxTree() throws Exception {
+		File taxFile = new File(dataDirName, taxonomyFileName);
+		if (taxFile.exists() && readTaxonomyFormat() == taxonomyFormat)
+			return;
+		// Files written in older format lack some data (e.g. ranks), so they're rebuilt
+		String oldVersion = taxFile.exists() ? getFileVersion(taxFile) : null;
+		int rekeyedTracks;
+		try {
+			rekeyedTracks = buildTaxonomy(getDumpFile(), oldVersion);
+		} catch (Exception ex) {
+			discardStaging(null);
+			throw ex;
+		}
+		publishStaging(null, oldVersion, rekeyedTracks);
+	}
+
+	/**
+	 * @return format of current taxonomy files, 1 for files written before
+	 * format was stored
+	 */
+	private static int readTaxonomyFormat() throws Exception {
+		File formatFile = new File(dataDirName, formatFileName);
+		if (!formatFile.exists())
+			return 1;
+		return Integer.parseInt(FileUtils.readFileToString(formatFile, "UTF-8").trim());
+	}
+
+	/**
+	 * Writes JSON files and name index into staging files and uploads tree
+	 * into staging tables, nothing used by readers is touched.
+	 * @param oldVersion version of current taxonomy which items of stored
+	 * tracks are copied from into staging table or null
+	 * @return max id of copied tracks (see TrackStorage.rekeyItems)
+	 */
+	private static int buildTaxonomy(File dumpFile, String oldVersion) throws Exception {
 		File dataDir = new File(dataDirName);
 		if (!dataDir.exists())
 			dataDir.mkdirs();
-		File taxFile = new File(dataDir, taxonomyFileName);
-		if (taxFile.exists())
-			return;
-		File tempDir = new File(tempDirName);
+		long time = System.currentTimeMillis();
+		final TaxNode root = parseTaxDump(openZipEntry(dumpFile, "names.dmp"), 
+				openZipEntry(dumpFile, "nodes.dmp"));
+		System.out.println("Dump parsing time: " + (System.currentTimeMillis() - time) + " ms");
+		time = System.currentTimeMillis();
+		Map<Integer, Integer> layerMaxId = new TreeMap<Integer, Integer>();
+		prepareNodeIndeces(root, 0, layerMaxId, -1);
+		System.out.println("Index preparation time: " + (System.currentTimeMillis() - time) + " ms");
+		// JSON files are written while tree is uploaded into db
+		final File compactTempFile = new File(dataDir, compactTaxonomyFileName + stagingSuffix);
+		final File taxTempFile = new File(dataDir, taxonomyFileName + stagingSuffix);
+		ExecutorService jsonExecutor = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> jsonExport = jsonExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					long time = System.currentTimeMillis();
+					new ObjectMapper().writeValue(compactTempFile, CompactTree.fromTaxNode(root));
+					new ObjectMapper().writeValue(taxTempFile, root);
+					long bytes = compactTempFile.length() + taxTempFile.length();
+					long jsonTime = System.currentTimeMillis() - time;
+					System.out.println("JSON export: " + (bytes >> 20) + " MB in " + jsonTime + 
+							" ms (" + (bytes * 1000 / Math.max(1, jsonTime) >> 20) + " MB/s)");
+					return null;
+				}
+			});
+			NameIndex nameIndex = NameIndex.build(openZipEntry(dumpFile, "names.dmp"));
+			nameIndex.save(new File(dataDir, nameIndexFileName + stagingSuffix));
+			FileUtils.writeStringToFile(new File(dataDir, formatFileName + stagingSuffix), 
+					String.valueOf(taxonomyFormat), "UTF-8");
+			MysqlConn conn = MysqlConn.get();
+			String indexTable = MysqlDbManager.TBL_TAX_INDEX + stagingSuffix;
+			String layersTable = MysqlDbManager.TBL_TAX_LAYERS + stagingSuffix;
+			String itemsTable = MysqlDbManager.TBL_TRACK_ITEMS + stagingSuffix;
+			conn.dropTableIfExists(indexTable, layersTable, itemsTable);
+			MysqlDbManager.createTaxIndexTable(conn, indexTable);
+			time = System.currentTimeMillis();
+			int inserted = TaxIndexUploader.upload(root, indexTable, getUploadConnections());
+			MysqlConn.Batch batch = MysqlDbManager.createTaxLayersBatch(conn, layersTable);
+			for (Map.Entry<Integer, Integer> entry : layerMaxId.entrySet())
+				batch.addNextRow(new Object[] {entry.getKey(), entry.getValue() + 1});
+			batch.close();
+			System.out.println("Db upload time: " + (System.currentTimeMillis() - time) + " ms");
+			System.out.println("Rows inserted: " + inserted);
+			int rekeyedTracks = 0;
+			if (oldVersion != null && conn.checkTable(MysqlDbManager.TBL_TRACKS)) {
+				time = System.currentTimeMillis();
+				MysqlDbManager.createTrackTables();
+				rekeyedTracks = TrackStorage.rekeyItems(conn, oldVersion, indexTable, itemsTable);
+				System.out.println("Track items re-keying time: " + 
+						(System.currentTimeMillis() - time) + " ms");
+			}
+			jsonExport.get();
+			return rekeyedTracks;
+		} finally {
+			// Export is finished even after failed upload, so staging files can be discarded
+			jsonExecutor.shutdown();
+			jsonExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * @return number of parallel upload connections (upload.connections
+	 * parameter of mysql.cfg)
+	 */
+	private static int getUploadConnections() {
+		return Integer.parseInt(MysqlConn.getConfigParam("upload.connections", 
+				String.valueOf(defaultUploadConnections)));
+	}
+
+	/**
+	 * Swaps staging tables and files with current ones, main taxonomy file is
+	 * replaced last since its presence means taxonomy is ready. Tracks which
+	 * items were re-keyed get version of new taxonomy, other tracks keep old
+	 * one and have to be saved again.
+	 * @param newDumpFile newly downloaded dump or null
+	 * @param oldVersion version of replaced taxonomy or null
+	 * @param rekeyedTracks max id of tracks copied into staging items table
+	 */
+	private static void publishStaging(File newDumpFile, String oldVersion, int rekeyedTracks)
+			throws Exception {
+		MysqlConn conn = MysqlConn.get();
+		List<String> tables = new ArrayList<String>(Arrays.asList(MysqlDbManager.TBL_TAX_INDEX, 
+				MysqlDbManager.TBL_TAX_LAYERS));
+		if (conn.checkTable(MysqlDbManager.TBL_TRACK_ITEMS + stagingSuffix))
+			tables.add(MysqlDbManager.TBL_TRACK_ITEMS);
+		MysqlDbManager.replaceWithStaging(conn, stagingSuffix, tables.toArray(new String[tables.size()]));
+		if (newDumpFile != null)
+			replaceFile(newDumpFile, getDumpFile());
+		for (String fileName : stagedFileNames)
+			replaceFile(new File(dataDirName, fileName + stagingSuffix), new File(dataDirName, fileName));
+		if (rekeyedTracks > 0)
+			TrackStorage.updateTaxonomyVersion(conn, oldVersion, 
+					getFileVersion(new File(dataDirName, taxonomyFileName)), rekeyedTracks);
+	}
+
+	private static void discardStaging(File newDumpFile) {
+		try {
+			MysqlConn.get().dropTableIfExists(MysqlDbManager.TBL_TAX_INDEX + stagingSuffix, 
+					MysqlDbManager.TBL_TAX_LAYERS + stagingSuffix, 
+					MysqlDbManager.TBL_TRACK_ITEMS + stagingSuffix);
+		} catch (Exception ex) {
+			System.out.println("Error dropping staging tables: " + ex.getMessage());
+		}
+		if (newDumpFile != null)
+			newDumpFile.delete();
+		for (String fileName : stagedFileNames)
+			new File(dataDirName, fileName + stagingSuffix).delete();
+	}
+	
+	/**
+	 * Builds tree (without indeces) from names.dmp and nodes.dmp of NCBI
+	 * taxonomy dump, both streams are closed.
+	 */
+	static TaxNode parseTaxDump(InputStream namesDmp, InputStream nodesDmp) throws Exception {
 		Map<Integer, TaxNode> nodeMap = new HashMap<Integer, TaxNode>();
-		BufferedReader br = new BufferedReader(new InputStreamReader(findZipEntry(
-				ncbiFtpZipUrl, tempDir, "names.dmp")));
+		BufferedReader br = new BufferedReader(new InputStreamReader(namesDmp));
 		while (true) {
 			String l = br.readLine();
 			if (l == null)
 				break;
-			if (l.trim().length() == 0)
+			String[] parts = splitDmpLine(l);
+			if (parts == null)
 				continue;
-			if (l.endsWith("\t|"))
-				l = l.substring(0, l.length() - 2);
-			String[] parts = div.split(l);
 			if (parts.length != 4)
 				throw new IllegalStateException("Wrong line format: [" + l + "]");
 			if (!parts[3].equals("scientific name"))
@@ -72,23 +338,24 @@ public class TaxTreeLoader {
 		br.close();
 		System.out.println("Nodes: " + nodeMap.size());
 		int rootId = -1;
-		Set<Integer> hidden = new HashSet<Integer>();
-		br = new BufferedReader(new InputStreamReader(findZipEntry(ncbiFtpZipUrl, 
-				tempDir, "nodes.dmp")));
+		int hidden = 0;
+		br = new BufferedReader(new InputStreamReader(nodesDmp));
 		while (true) {
 			String l = br.readLine();
 			if (l == null)
 				break;
-			if (l.trim().length() == 0)
+			String[] parts = splitDmpLine(l);
+			if (parts == null)
 				continue;
-			if (l.endsWith("\t|"))
-				l = l.substring(0, l.length() - 2);
-			String[] parts = div.split(l);
 			if (parts.length < 12)
 				throw new IllegalStateException("Wrong line format (" + 
 						parts.length + " fields): [" + l + "]");
 			int nodeId = Integer.parseInt(parts[0]);
 			int parentId = Integer.parseInt(parts[1]);
+			TaxNode node = nodeMap.get(nodeId);
+			if (node == null)
+				throw new IllegalStateException("No node for id=" + nodeId);
+			node.rank = TaxRank.parse(parts[2]);
 			if (nodeId == parentId) {
 				rootId = nodeId;
 				continue;
@@ -96,11 +363,8 @@ public class TaxTreeLoader {
 			TaxNode parent = nodeMap.get(parentId);
 			if (parent == null)
 				throw new IllegalStateException("No node for parent id=" + parentId);
-			TaxNode node = nodeMap.get(nodeId);
-			if (node == null)
-				throw new IllegalStateException("No node for id=" + nodeId);
 			if (parts[10].equals("1")) {
-				hidden.add(nodeId);
+				hidden++;
 				node.hidden = 1;
 			}
 			if (parent.children == null)
@@ -108,36 +372,184 @@ public class TaxTreeLoader {
 			parent.children.add(node);
 		}
 		br.close();
-		TaxNode root = nodeMap.get(rootId);
-		if (removeHidden) {
-			System.out.println("Hidden in genbank: " + hidden.size());
-			removeHidden(null, root, hidden);
-			System.out.println("Remaining nodes: " + countNodes(root));
+		System.out.println("Hidden in genbank: " + hidden);
+		return nodeMap.get(rootId);
+	}
+
+	/**
+	 * Cuts tree into subtree chunks of at most maxNodes nodes (the only
+	 * exception is node having more than maxNodes children) and writes every
+	 * chunk into separate file named by taxid of its top node. Nodes which
+	 * children are moved into other chunk are written as stubs without
+	 * children but with "chunk" property. Manifest file describes all chunks.
+	 * @return number of chunks
+	 */
+	public static int exportChunks(final TaxTreeIndex index, final File chunkDir, 
+			final int maxNodes, int threads) throws Exception {
+		int size = index.size();
+		final boolean[] cut = new boolean[size];
+		int[] chunkSizes = new int[size];
+		cut[0] = true;
+		for (int ind = size - 1; ind >= 0; ind--) {
+			int chunkSize = 1;
+			List<Integer> candidates = new ArrayList<Integer>();
+			for (int ch = index.getFirstChild(ind); ch >= 0; ch = index.getNextSibling(ch)) {
+				chunkSize += chunkSizes[ch];
+				if (chunkSizes[ch] > 1)
+					candidates.add(ch);
+			}
+			if (chunkSize > maxNodes) {
+				final int[] sizes = chunkSizes;
+				Collections.sort(candidates, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer o1, Integer o2) {
+						return Integer.compare(sizes[o2], sizes[o1]);
+					}
+				});
+				for (int i = 0; i < candidates.size() && chunkSize > maxNodes; i++) {
+					int ch = candidates.get(i);
+					cut[ch] = true;
+					chunkSize -= chunkSizes[ch] - 1;
+				}
+			}
+			chunkSizes[ind] = chunkSize;
 		}
-		prepareNodeIndeces(root, 0, new TreeMap<Integer, Integer>(), -1);
-		new ObjectMapper().writeValue(taxFile, root);
-		MysqlConn.get().dropTableIfExists(MysqlDbManager.TBL_TAX_INDEX);
-		long time = System.currentTimeMillis();
-		MysqlConn.Batch batch = MysqlDbManager.createTaxIndexBatch();
-		int inserted = insertTaxIndex(-1, "", root, batch);
-		batch.close();
-		System.out.println("Db upload time: " + (System.currentTimeMillis() - time) + " ms");
-		System.out.println("Rows inserted: " + inserted);
+		if (!chunkDir.exists())
+			chunkDir.mkdirs();
+		final ObjectMapper mapper = new ObjectMapper();
+		List<Map<String, Object>> manifestChunks = new ArrayList<Map<String, Object>>();
+		int[] chunkOfNode = new int[size];
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+			for (int ind = 0; ind < size; ind++) {
+				int parent = index.getParent(ind);
+				if (!cut[ind]) {
+					chunkOfNode[ind] = chunkOfNode[parent];
+					continue;
+				}
+				chunkOfNode[ind] = ind;
+				Map<String, Object> chunk = new LinkedHashMap<String, Object>();
+				chunk.put("id", getChunkId(index, ind));
+				chunk.put("taxid", index.getTaxId(ind));
+				chunk.put("title", index.getTitle(ind));
+				chunk.put("parent", parent < 0 ? null : getChunkId(index, chunkOfNode[parent]));
+				chunk.put("nodes", chunkSizes[ind]);
+				manifestChunks.add(chunk);
+				final int chunkRoot = ind;
+				tasks.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						mapper.writeValue(new File(chunkDir, getChunkId(index, chunkRoot) + ".json"), 
+								buildChunk(index, chunkRoot, cut, true));
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> task : tasks)
+				task.get();
+		} finally {
+			executor.shutdown();
+		}
+		Map<String, Object> manifest = new LinkedHashMap<String, Object>();
+		manifest.put("maxNodes", maxNodes);
+		manifest.put("root", getChunkId(index, 0));
+		manifest.put("chunks", manifestChunks);
+		mapper.writeValue(new File(chunkDir, chunkManifestFileName), manifest);
+		return manifestChunks.size();
 	}
-	
-	private static InputStream findZipEntry(String zipUrl, File tempDir, 
-			String entryName) throws Exception {
+
+	private static String getChunkId(TaxTreeIndex index, int ind) {
+		return String.valueOf(index.getTaxId(ind));
+	}
+
+	private static TaxNode buildChunk(TaxTreeIndex index, int ind, boolean[] cut, 
+			boolean chunkRoot) {
+		TaxNode ret = index.getNode(ind);
+		if (cut[ind] && !chunkRoot) {
+			ret.chunk = getChunkId(index, ind);
+			return ret;
+		}
+		for (int ch = index.getFirstChild(ind); ch >= 0; ch = index.getNextSibling(ch)) {
+			if (ret.children == null)
+				ret.children = new ArrayList<TaxNode>();
+			ret.children.add(buildChunk(index, ch, cut, false));
+		}
+		return ret;
+	}
+
+	/**
+	 * @return map from merged (deprecated) taxid to taxid it was merged into
+	 */
+	public static Map<Integer, Integer> loadMergedTaxIds() throws Exception {
+		Map<Integer, Integer> ret = new HashMap<Integer, Integer>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(openTaxDumpEntry("merged.dmp")));
+		try {
+			while (true) {
+				String l = br.readLine();
+				if (l == null)
+					break;
+				String[] parts = splitDmpLine(l);
+				if (parts == null)
+					continue;
+				if (parts.length != 2)
+					throw new IllegalStateException("Wrong line format: [" + l + "]");
+				ret.put(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+			}
+		} finally {
+			br.close();
+		}
+		return ret;
+	}
+
+	/**
+	 * @return stream of entry (like names.dmp) of NCBI taxonomy dump, dump is
+	 * downloaded into temp folder if necessary
+	 */
+	public static InputStream openTaxDumpEntry(String entryName) throws Exception {
+		return openZipEntry(getDumpFile(), entryName);
+	}
+
+	static String[] splitDmpLine(String l) {
+		if (l.trim().length() == 0)
+			return null;
+		if (l.endsWith("\t|"))
+			l = l.substring(0, l.length() - 2);
+		return div.split(l);
+	}
+
+	/**
+	 * @return NCBI taxonomy dump in temp folder, it's downloaded if necessary
+	 */
+	private static synchronized File getDumpFile() throws Exception {
+		File tempDir = new File(tempDirName);
 		if (!tempDir.exists())
 			tempDir.mkdirs();
-		File tempFile = new File(tempDir, zipUrl.substring(zipUrl.lastIndexOf('/') + 1));
-		if (!tempFile.exists()) {
-			InputStream is = new URL(zipUrl).openStream();
-			FileOutputStream fos = new FileOutputStream(tempFile);
-			IOUtils.copy(is, fos);
-			fos.close();
+		File ret = new File(tempDir, ncbiFtpZipUrl.substring(ncbiFtpZipUrl.lastIndexOf('/') + 1));
+		if (!ret.exists()) {
+			File tempFile = new File(tempDir, ret.getName() + stagingSuffix);
+			download(ncbiFtpZipUrl, tempFile);
+			replaceFile(tempFile, ret);
+		}
+		return ret;
+	}
+
+	private static void download(String url, File target) throws Exception {
+		InputStream is = new URL(url).openStream();
+		try {
+			FileOutputStream fos = new FileOutputStream(target);
+			try {
+				IOUtils.copy(is, fos);
+			} finally {
+				fos.close();
+			}
+		} finally {
 			is.close();
 		}
-		ZipInputStream zis = new ZipInputStream(new FileInputStream(tempFile));
+	}
+
+	private static InputStream openZipEntry(File zipFile, String entryName) throws Exception {
+		ZipInputStream zis = new ZipInputStream(new FileInputStream(zipFile));
 		while (true) {
 			ZipEntry ze = zis.getNextEntry();
 			if (ze == null)
@@ -146,37 +558,14 @@ public class TaxTreeLoader {
 				return zis;
 		}
 		zis.close();
-		throw new IllegalStateException("Can't find entry " + entryName + " in zip file");
+		throw new IllegalStateException("Can't find entry " + entryName + " in zip file " + zipFile);
 	}
 	
-	private static void removeHidden(TaxNode parent, TaxNode node, Set<Integer> hiddenNodes) {
-		TaxNode futPar = node;
-		if (hiddenNodes.contains(node.taxid)) {
-			parent.children.remove(node);
-			if (node.children != null)
-				for (TaxNode ch : node.children)
-					parent.children.add(ch);
-			futPar = parent;
-		}
-		if (node.children != null) {
-			List<TaxNode> children = new ArrayList<TaxNode>(node.children);
-			for (TaxNode ch : children)
-				removeHidden(futPar, ch, hiddenNodes);
-		}
-		if (futPar.children != null && futPar.children.isEmpty())
-			futPar.children = null;
-	}
-	
-	private static int countNodes(TaxNode node) {
-		int ret = 1;
-		if (node.children != null) {
-			for (TaxNode ch : node.children)
-				ret += countNodes(ch);
-		}
-		return ret;
-	}
-	
-	private static int prepareNodeIndeces(TaxNode node, int layer, 
+	/**
+	 * Assigns pre-order positions, layers and positions inside layers and
+	 * collects leaf counts and heights of subtrees in the same pass.
+	 */
+	static int prepareNodeIndeces(TaxNode node, int layer, 
 			Map<Integer, Integer> layerMaxId, int prevIndex) {
 		prevIndex++;
 		node.ind = prevIndex;
@@ -189,23 +578,35 @@ public class TaxTreeLoader {
 		}
 		node.lpos = lpos;
 		layerMaxId.put(layer, lpos);
+		node.leaves = node.children == null ? 1 : 0;
+		node.height = 0;
 		if (node.children != null) {
-			for (TaxNode ch : node.children)
+			for (TaxNode ch : node.children) {
 				prevIndex = prepareNodeIndeces(ch, layer + 1, layerMaxId, prevIndex);
+				node.leaves += ch.leaves;
+				node.height = Math.max(node.height, ch.height + 1);
+			}
 		}
 		node.maxind = prevIndex;
 		return prevIndex;
 	}
 
-	private static int insertTaxIndex(int parId, String path, TaxNode node, MysqlConn.Batch target) throws Exception {
+	static int insertTaxIndex(int parId, String path, TaxNode node, MysqlConn.Batch target) throws Exception {
 		path += "/" + node.taxid;
 		int size = node.children == null ? 0 : node.children.size();
-		target.addNextRow(new Object[] {node.taxid, parId, node.title, node.hidden, 
-				node.layer, node.lpos, node.ind, node.maxind, path, size});
+		target.addNextRow(new Object[] {node.taxid, parId, node.title, node.hidden, node.rank,
+				node.layer, node.lpos, node.ind, node.maxind, path, size, 
+				node.maxind - node.ind, node.leaves, node.height});
 		int ret = 1;
 		if (node.children != null)
 			for (TaxNode ch : node.children)
 				ret += insertTaxIndex(node.taxid, path, ch, target);
 		return ret;
 	}
-}
\ No newline at end of file
+
+	public static class TaxonomyFiles {
+		public String version;
+		public TaxNode root;
+		public NameIndex nameIndex;
+	}
+}
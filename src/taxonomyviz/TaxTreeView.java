@@ -0,0 +1,197 @@
+package taxonomyviz;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Read-only projection of TaxTreeIndex keeping only selected nodes (for
+ * instance those not hidden in genbank). Children of removed nodes are
+ * attached to nearest kept ancestor. Underlying index is not copied or
+ * changed, view only holds precomputed "nearest kept ancestor", children
+ * and pre-order numbering arrays, so several views can share one index.
+ */
+public class TaxTreeView {
+	private final TaxTreeIndex index;
+	private final boolean[] keep;
+	private final int[] keptParents;
+	private final int[] childStarts;
+	private final int[] children;
+	private final int[] keptBefore;
+	private final int[] viewToInd;
+
+	/**
+	 * @param keep flags addressed by ind, root is always kept (array is
+	 * copied, so caller may reuse it)
+	 */
+	public TaxTreeView(TaxTreeIndex index, boolean[] keep) {
+		int size = index.size();
+		this.index = index;
+		keep = Arrays.copyOf(keep, size);
+		keep[0] = true;
+		this.keep = keep;
+		keptParents = new int[size];
+		keptBefore = new int[size + 1];
+		childStarts = new int[size + 1];
+		keptParents[0] = -1;
+		for (int ind = 0; ind < size; ind++) {
+			if (ind > 0) {
+				int parent = index.getParent(ind);
+				keptParents[ind] = keep[parent] ? parent : keptParents[parent];
+			}
+			keptBefore[ind + 1] = keptBefore[ind] + (keep[ind] ? 1 : 0);
+			if (ind > 0 && keep[ind])
+				childStarts[keptParents[ind] + 1]++;
+		}
+		for (int ind = 0; ind < size; ind++)
+			childStarts[ind + 1] += childStarts[ind];
+		children = new int[childStarts[size]];
+		viewToInd = new int[keptBefore[size]];
+		int[] fillPos = new int[size];
+		for (int ind = 0; ind < size; ind++) {
+			if (!keep[ind])
+				continue;
+			viewToInd[keptBefore[ind]] = ind;
+			if (ind > 0) {
+				int parent = keptParents[ind];
+				children[childStarts[parent] + fillPos[parent]++] = ind;
+			}
+		}
+	}
+
+	public static TaxTreeView full(TaxTreeIndex index) {
+		boolean[] keep = new boolean[index.size()];
+		Arrays.fill(keep, true);
+		return new TaxTreeView(index, keep);
+	}
+
+	/**
+	 * @return view without nodes marked as hidden in genbank
+	 */
+	public static TaxTreeView genbank(TaxTreeIndex index) {
+		boolean[] keep = new boolean[index.size()];
+		for (int ind = 0; ind < keep.length; ind++)
+			keep[ind] = !index.isHidden(ind);
+		return new TaxTreeView(index, keep);
+	}
+
+	/**
+	 * @return view keeping only nodes of given ranks (root is always kept)
+	 */
+	public static TaxTreeView ranks(TaxTreeIndex index, Collection<String> ranks) {
+		boolean[] keepCodes = new boolean[index.getRankCodeCount()];
+		for (String rank : ranks) {
+			int code = index.getRankCode(rank);
+			if (code >= 0)
+				keepCodes[code] = true;
+		}
+		boolean[] keep = new boolean[index.size()];
+		for (int ind = 0; ind < keep.length; ind++)
+			keep[ind] = keepCodes[index.getRankCode(ind)];
+		return new TaxTreeView(index, keep);
+	}
+
+	/**
+	 * @return view collapsed to standard ranks (see TaxRank.STANDARD)
+	 */
+	public static TaxTreeView standardRanks(TaxTreeIndex index) {
+		return ranks(index, TaxRank.STANDARD);
+	}
+
+	/**
+	 * @return view collapsed to standard ranks from top down to given one
+	 */
+	public static TaxTreeView atOrAbove(TaxTreeIndex index, String rank) {
+		return ranks(index, TaxRank.atOrAbove(rank));
+	}
+
+	public static void main(String[] args) throws Exception {
+		TaxTreeIndex index = TaxTreeLoader.getTaxIndex();
+		long time = System.currentTimeMillis();
+		TaxTreeView view = genbank(index);
+		System.out.println("View preparation time: " + (System.currentTimeMillis() - time) + " ms");
+		System.out.println("Nodes: " + index.size() + ", visible in genbank: " + view.size());
+		new ObjectMapper().writeValue(new File("data/taxonomy_genbank.json"), view.toTaxNode(0));
+		time = System.currentTimeMillis();
+		view = atOrAbove(index, TaxRank.GENUS);
+		System.out.println("Genus view preparation time: " + (System.currentTimeMillis() - time) + 
+				" ms, nodes: " + view.size());
+		new ObjectMapper().writeValue(new File("data/taxonomy_genus.json"), view.toTaxNode(0));
+	}
+
+	public TaxTreeIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return number of kept nodes
+	 */
+	public int size() {
+		return viewToInd.length;
+	}
+
+	public boolean isVisible(int ind) {
+		return keep[ind];
+	}
+
+	/**
+	 * @return ind of nearest kept proper ancestor or -1 for root
+	 */
+	public int getParent(int ind) {
+		return keptParents[ind];
+	}
+
+	/**
+	 * @return ind of node itself if it's kept or of its nearest kept ancestor
+	 */
+	public int getVisibleNode(int ind) {
+		return keep[ind] ? ind : keptParents[ind];
+	}
+
+	public int getChildCount(int ind) {
+		return childStarts[ind + 1] - childStarts[ind];
+	}
+
+	/**
+	 * @return ind of kept child with given position (children of removed
+	 * nodes are included in place of these nodes)
+	 */
+	public int getChild(int ind, int childPos) {
+		return children[childStarts[ind] + childPos];
+	}
+
+	/**
+	 * @return position of kept node in pre-order traversal of the view
+	 */
+	public int getViewInd(int ind) {
+		return keptBefore[ind];
+	}
+
+	/**
+	 * @return view position of last kept node in subtree
+	 */
+	public int getViewMaxInd(int ind) {
+		return keptBefore[index.getMaxInd(ind) + 1] - 1;
+	}
+
+	public int getIndByViewInd(int viewInd) {
+		return viewToInd[viewInd];
+	}
+
+	/**
+	 * @return copy of kept subtree starting at given kept node
+	 */
+	public TaxNode toTaxNode(int ind) {
+		TaxNode ret = index.getNode(ind);
+		int childCount = getChildCount(ind);
+		if (childCount > 0) {
+			ret.children = new ArrayList<TaxNode>(childCount);
+			for (int i = 0; i < childCount; i++)
+				ret.children.add(toTaxNode(getChild(ind, i)));
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,108 @@
+package taxonomyviz;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Current in-memory taxonomy. Readers take immutable snapshot from atomic
+ * reference without any locking and keep using it for the whole operation.
+ * Reload is done by single background thread which publishes new snapshot
+ * atomically; old snapshots are collected when last reader releases them.
+ */
+public class TaxonomyHolder {
+	private static final AtomicReference<TaxonomySnapshot> current =
+			new AtomicReference<TaxonomySnapshot>();
+	private static final AtomicLong serials = new AtomicLong();
+	private static final ExecutorService rebuilder = Executors.newSingleThreadExecutor(
+			daemonThreads("taxonomy-rebuilder"));
+	private static Future<TaxonomySnapshot> pendingReload = null;
+	private static ScheduledExecutorService scheduler = null;
+
+	public static void main(String[] args) throws Exception {
+		long time = System.currentTimeMillis();
+		TaxonomySnapshot snapshot = get();
+		System.out.println("Snapshot " + snapshot.serial + " (" + snapshot.version +
+				") loaded in " + (System.currentTimeMillis() - time) + " ms");
+		time = System.currentTimeMillis();
+		snapshot = reload(args.length > 0 && args[0].equals("download")).get();
+		System.out.println("Snapshot " + snapshot.serial + " (" + snapshot.version +
+				") reloaded in " + (System.currentTimeMillis() - time) + " ms");
+	}
+
+	/**
+	 * @return current snapshot, first call loads it synchronously
+	 */
+	public static TaxonomySnapshot get() throws Exception {
+		TaxonomySnapshot ret = current.get();
+		return ret != null ? ret : loadFirst();
+	}
+
+	private static synchronized TaxonomySnapshot loadFirst() throws Exception {
+		if (current.get() == null)
+			current.compareAndSet(null, TaxonomySnapshot.load(serials.incrementAndGet()));
+		return current.get();
+	}
+
+	/**
+	 * Starts reload in background thread unless one is already running (in
+	 * that case the running one is returned). Readers keep getting previous
+	 * snapshot until new one is ready.
+	 * @param downloadNewRelease if true taxonomy files are rebuilt from fresh
+	 * NCBI dump, otherwise they are just read again
+	 */
+	public static synchronized Future<TaxonomySnapshot> reload(final boolean downloadNewRelease) {
+		if (pendingReload != null && !pendingReload.isDone())
+			return pendingReload;
+		pendingReload = rebuilder.submit(new Callable<TaxonomySnapshot>() {
+			@Override
+			public TaxonomySnapshot call() throws Exception {
+				if (downloadNewRelease)
+					TaxTreeLoader.rebuildTaxTree(true);
+				TaxonomySnapshot ret = TaxonomySnapshot.load(serials.incrementAndGet());
+				current.set(ret);
+				System.out.println("Taxonomy snapshot " + ret.serial + " (" + ret.version +
+						") is published");
+				return ret;
+			}
+		});
+		return pendingReload;
+	}
+
+	/**
+	 * Downloads and publishes new NCBI release periodically.
+	 */
+	public static synchronized void scheduleReload(long periodHours) {
+		if (scheduler != null)
+			scheduler.shutdown();
+		scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("taxonomy-reload-timer"));
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					reload(true).get();
+				} catch (Exception ex) {
+					System.out.println("Error reloading taxonomy: " + ex.getMessage());
+					ex.printStackTrace();
+				}
+			}
+		}, periodHours, periodHours, TimeUnit.HOURS);
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread ret = new Thread(r, name);
+				ret.setDaemon(true);
+				return ret;
+			}
+		};
+	}
+}
@@ -0,0 +1,316 @@
+package taxonomyviz;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP/JSON access to in-memory taxonomy. Endpoints (all GET):
+ * /node?taxid=, /children?taxid=, /path?taxid=, /subtree?taxid=&depth=,
+ * /search?name=. Tree endpoints accept genbank=1 to skip hidden nodes or
+ * ranks=standard|genus to collapse tree to standard ranks (down to genus),
+ * but not both.
+ * HEAD requests are answered with headers only.
+ * Responses carry ETag of taxonomy version and conditional requests with
+ * matching If-None-Match get 304. Every request works with one taxonomy
+ * snapshot, so background reload never mixes versions in one response.
+ */
+public class TaxonomyServer {
+	private static final int defaultPort = 8085;
+	private static final int defaultSubtreeDepth = 2;
+	private static final int maxSubtreeDepth = 10;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private HttpServer server = null;
+	private ExecutorService executor = null;
+
+	public TaxonomyServer() throws Exception {
+		TaxonomyHolder.get();
+	}
+
+	public static void main(String[] args) throws Exception {
+		// Without it small responses wait for delayed ACK of headers packet. It's
+		// JVM-wide and read once when first HttpServer is created, so it's set
+		// here before anything else rather than in start().
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		String mode = args.length > 0 ? args[0] : "serve";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : defaultPort;
+		TaxonomyServer server = new TaxonomyServer();
+		server.start(port, 64);
+		System.out.println("Taxonomy server is listening on port " + port);
+		if (mode.equals("serve") && args.length > 2)
+			TaxonomyHolder.scheduleReload(Long.parseLong(args[2]));
+		if (mode.equals("loadtest")) {
+			int threads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+			int requests = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+			try {
+				runLoadTest("http://localhost:" + port, threads, requests);
+			} finally {
+				server.stop();
+			}
+		}
+	}
+
+	/**
+	 * Requests are executed on virtual threads when JVM supports them,
+	 * otherwise on fixed pool of given size.
+	 */
+	public void start(int port, int threads) throws Exception {
+		executor = createExecutor(threads);
+		server = HttpServer.create(new InetSocketAddress(port), 1024);
+		server.setExecutor(executor);
+		for (final String endpoint : Arrays.asList("node", "children", "path", "subtree", "search")) {
+			server.createContext("/" + endpoint, new HttpHandler() {
+				@Override
+				public void handle(HttpExchange exchange) throws IOException {
+					handleRequest(endpoint, exchange);
+				}
+			});
+		}
+		server.start();
+	}
+
+	public void stop() {
+		if (server != null)
+			server.stop(0);
+		if (executor != null)
+			executor.shutdown();
+	}
+
+	private static ExecutorService createExecutor(int threads) {
+		try {
+			return (ExecutorService)Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception ex) {
+			return Executors.newFixedThreadPool(threads);
+		}
+	}
+
+	private void handleRequest(String endpoint, HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			if (!method.equals("GET") && !method.equals("HEAD")) {
+				sendError(exchange, 405, "Only GET and HEAD methods are supported");
+				return;
+			}
+			TaxonomySnapshot snapshot = TaxonomyHolder.get();
+			Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+			Object ret = processRequest(snapshot, endpoint, params);
+			if (ret == null) {
+				sendError(exchange, 404, "Tax node wasn't found");
+				return;
+			}
+			// Only successful response carries ETag and can be replaced by 304
+			String etag = "\"" + snapshot.version + "\"";
+			exchange.getResponseHeaders().set("ETag", etag);
+			if (matchesETag(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+			sendJson(exchange, 200, ret);
+		} catch (IllegalArgumentException ex) {
+			sendError(exchange, 400, ex.getMessage());
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			sendError(exchange, 500, String.valueOf(ex.getMessage()));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @param ifNoneMatch value of If-None-Match header (list of entity tags
+	 * or "*") or null
+	 * @return true if any tag matches etag by weak comparison (W/ prefix is
+	 * ignored)
+	 */
+	static boolean matchesETag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null)
+			return false;
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if (tag.equals("*") || tag.equals(etag))
+				return true;
+		}
+		return false;
+	}
+
+	private Object processRequest(TaxonomySnapshot snapshot, String endpoint, 
+			Map<String, String> params) throws Exception {
+		boolean genbankOnly = "1".equals(params.get("genbank")) ||
+				"true".equals(params.get("genbank"));
+		if (endpoint.equals("search")) {
+			String name = params.get("name");
+			if (name == null)
+				throw new IllegalArgumentException("Parameter name is not set");
+			TaxTreeIndex index = snapshot.index;
+			List<TaxNode> ret = new ArrayList<TaxNode>();
+			for (int taxId : snapshot.nameIndex.getTaxIds(name)) {
+				int ind = index.getInd(taxId);
+				if (ind >= 0)
+					ret.add(index.getNode(ind));
+			}
+			return ret;
+		}
+		int taxId = getIntParam(params, "taxid", null);
+		TaxTreeView view = snapshot.getView(genbankOnly);
+		String ranks = params.get("ranks");
+		if (ranks != null) {
+			if (genbankOnly)
+				throw new IllegalArgumentException("Parameters genbank and ranks can't be combined");
+			view = snapshot.getRankView(ranks);
+			if (view == null)
+				throw new IllegalArgumentException("Wrong value of parameter ranks: " + ranks);
+		}
+		int ind = view.getIndex().getInd(taxId);
+		if (ind < 0)
+			return null;
+		// Node hidden in view is represented by its nearest visible ancestor
+		if (endpoint.equals("node"))
+			return view.getIndex().getNode(view.getVisibleNode(ind));
+		if (endpoint.equals("children"))
+			return TaxNodeSearch.getChildren(view, taxId);
+		if (endpoint.equals("path"))
+			return TaxNodeSearch.getPath(view, taxId);
+		int depth = Math.min(maxSubtreeDepth, getIntParam(params, "depth", defaultSubtreeDepth));
+		return buildSubtree(view, view.getVisibleNode(ind), depth);
+	}
+
+	private static TaxNode buildSubtree(TaxTreeView view, int ind, int depth) {
+		TaxNode ret = view.getIndex().getNode(ind);
+		int childCount = view.getChildCount(ind);
+		if (depth > 0 && childCount > 0) {
+			ret.children = new ArrayList<TaxNode>(childCount);
+			for (int i = 0; i < childCount; i++)
+				ret.children.add(buildSubtree(view, view.getChild(ind, i), depth - 1));
+		}
+		return ret;
+	}
+
+	private static int getIntParam(Map<String, String> params, String name, Integer defaultValue) {
+		String value = params.get(name);
+		if (value == null) {
+			if (defaultValue == null)
+				throw new IllegalArgumentException("Parameter " + name + " is not set");
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Wrong value of parameter " + name + ": " + value);
+		}
+	}
+
+	private static Map<String, String> parseQuery(String query) throws Exception {
+		Map<String, String> ret = new HashMap<String, String>();
+		if (query == null)
+			return ret;
+		for (String pair : query.split("&")) {
+			int pos = pair.indexOf('=');
+			if (pos < 0) {
+				ret.put(URLDecoder.decode(pair, "UTF-8"), "");
+			} else {
+				ret.put(URLDecoder.decode(pair.substring(0, pos), "UTF-8"),
+						URLDecoder.decode(pair.substring(pos + 1), "UTF-8"));
+			}
+		}
+		return ret;
+	}
+
+	private void sendJson(HttpExchange exchange, int code, Object data) throws IOException {
+		byte[] body = mapper.writeValueAsBytes(data);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.sendResponseHeaders(code, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(code, body.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(body);
+		os.close();
+	}
+
+	private void sendError(HttpExchange exchange, int code, String message) throws IOException {
+		Map<String, String> error = new HashMap<String, String>();
+		error.put("error", message);
+		sendJson(exchange, code, error);
+	}
+
+	/**
+	 * Sends random node/children/path requests from given number of client
+	 * threads and prints latency percentiles.
+	 */
+	public static void runLoadTest(final String baseUrl, int threads, int requests) throws Exception {
+		final TaxTreeIndex index = TaxonomyHolder.get().index;
+		final String[] endpoints = {"node", "children", "path"};
+		final int perThread = Math.max(1, requests / threads);
+		ExecutorService clients = Executors.newFixedThreadPool(threads);
+		long time = System.currentTimeMillis();
+		List<Future<long[]>> tasks = new ArrayList<Future<long[]>>();
+		try {
+			for (int t = 0; t < threads; t++) {
+				final long seed = t;
+				tasks.add(clients.submit(new Callable<long[]>() {
+					@Override
+					public long[] call() throws Exception {
+						Random rnd = new Random(seed);
+						long[] ret = new long[perThread];
+						for (int i = 0; i < perThread; i++) {
+							int taxId = index.getTaxId(rnd.nextInt(index.size()));
+							String endpoint = endpoints[rnd.nextInt(endpoints.length)];
+							long start = System.nanoTime();
+							HttpURLConnection conn = (HttpURLConnection)new URL(baseUrl + "/" +
+									endpoint + "?taxid=" + taxId).openConnection();
+							InputStream is = conn.getInputStream();
+							IOUtils.toByteArray(is);
+							is.close();
+							ret[i] = System.nanoTime() - start;
+						}
+						return ret;
+					}
+				}));
+			}
+			long[] latencies = new long[perThread * threads];
+			for (int t = 0; t < threads; t++)
+				System.arraycopy(tasks.get(t).get(), 0, latencies, t * perThread, perThread);
+			time = System.currentTimeMillis() - time;
+			Arrays.sort(latencies);
+			System.out.println("Requests: " + latencies.length + ", threads: " + threads +
+					", time: " + time + " ms, throughput: " +
+					(latencies.length * 1000L / Math.max(1, time)) + " req/s");
+			System.out.println("Latency p50: " + percentileMicros(latencies, 0.5) + " us, p99: " +
+					percentileMicros(latencies, 0.99) + " us, max: " +
+					(latencies[latencies.length - 1] / 1000) + " us");
+		} finally {
+			clients.shutdown();
+		}
+	}
+
+	private static long percentileMicros(long[] sortedNanos, double fraction) {
+		int pos = (int)Math.min(sortedNanos.length - 1, Math.round(fraction * sortedNanos.length));
+		return sortedNanos[pos] / 1000;
+	}
+}
@@ -0,0 +1,71 @@
+package taxonomyviz;
+
+/**
+ * One loaded version of taxonomy with everything derived from it. Snapshot
+ * is never changed after construction (except rank views built on first
+ * request), so it can be used by any number of threads without locking.
+ */
+public class TaxonomySnapshot {
+	/** Sequence number of snapshot inside this process */
+	public final long serial;
+	/** Version of taxonomy files snapshot was loaded from */
+	public final String version;
+	public final TaxTreeIndex index;
+	public final TaxTreeView fullView;
+	public final TaxTreeView genbankView;
+	public final NameIndex nameIndex;
+	/** Projection to standard ranks only, built lazily */
+	private volatile TaxTreeView standardRankView = null;
+	/** Projection to standard ranks from genus up, built lazily */
+	private volatile TaxTreeView genusView = null;
+
+	private TaxonomySnapshot(long serial, String version, TaxTreeIndex index, NameIndex nameIndex) {
+		this.serial = serial;
+		this.version = version;
+		this.index = index;
+		this.fullView = TaxTreeView.full(index);
+		this.genbankView = TaxTreeView.genbank(index);
+		this.nameIndex = nameIndex;
+	}
+
+	public static TaxonomySnapshot load(long serial) throws Exception {
+		TaxTreeLoader.TaxonomyFiles files = TaxTreeLoader.readTaxonomyFiles();
+		return new TaxonomySnapshot(serial, files.version, TaxTreeLoader.buildTaxIndex(files.root),
+				files.nameIndex);
+	}
+
+	/**
+	 * @param genbankOnly if true nodes hidden in genbank are skipped and their
+	 * children are attached to nearest visible ancestor
+	 */
+	public TaxTreeView getView(boolean genbankOnly) {
+		return genbankOnly ? genbankView : fullView;
+	}
+
+	/**
+	 * @param ranks "standard" or "genus"
+	 * @return rank-collapsed view or null for unknown name
+	 */
+	public TaxTreeView getRankView(String ranks) {
+		if (ranks.equals("standard")) {
+			TaxTreeView ret = standardRankView;
+			return ret != null ? ret : buildRankView(ranks);
+		}
+		if (ranks.equals(TaxRank.GENUS)) {
+			TaxTreeView ret = genusView;
+			return ret != null ? ret : buildRankView(ranks);
+		}
+		return null;
+	}
+
+	private synchronized TaxTreeView buildRankView(String ranks) {
+		if (ranks.equals("standard")) {
+			if (standardRankView == null)
+				standardRankView = TaxTreeView.standardRanks(index);
+			return standardRankView;
+		}
+		if (genusView == null)
+			genusView = TaxTreeView.atOrAbove(index, TaxRank.GENUS);
+		return genusView;
+	}
+}
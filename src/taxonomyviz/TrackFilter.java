@@ -0,0 +1,117 @@
+package taxonomyviz;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Predicate on one field of track items. Comparisons are numeric for
+ * numeric columns and lexicographic for text and date columns; IN_CLASS
+ * matches classification value together with all its subclasses.
+ */
+public class TrackFilter {
+	public final String field;
+	public final Op op;
+	public final Object value;
+
+	public TrackFilter(String field, Op op, Object value) {
+		this.field = field;
+		this.op = op;
+		this.value = value;
+	}
+
+	/**
+	 * Parses filter in form "field:op:value" (op is name of Op, case
+	 * insensitive).
+	 */
+	public static TrackFilter parse(String text) {
+		String[] parts = text.split(":", 3);
+		if (parts.length < 2)
+			throw new IllegalStateException("Wrong filter format: [" + text + "]");
+		Op op = Op.valueOf(parts[1].toUpperCase());
+		return new TrackFilter(parts[0], op, parts.length > 2 ? parts[2] : null);
+	}
+
+	/**
+	 * Keeps in selection (sorted positions of track items) only matching
+	 * positions.
+	 * @return number of remaining positions (they are moved to the beginning)
+	 */
+	public int apply(ColumnarTrack track, int[] selection, int count) {
+		ColumnDescription cd = track.getColumn(field);
+		int ret = 0;
+		if (cd.type.isNumeric()) {
+			double[] column = track.getNumericColumn(field);
+			if (op == Op.PRESENT) {
+				for (int i = 0; i < count; i++)
+					if (!Double.isNaN(column[selection[i]]))
+						selection[ret++] = selection[i];
+				return ret;
+			}
+			if (op == Op.CONTAINS || op == Op.IN_CLASS)
+				throw new IllegalStateException("Operation " + op + " is not supported for " +
+						"numeric field " + field);
+			double arg = value instanceof Number ? ((Number)value).doubleValue() :
+				Double.parseDouble(String.valueOf(value));
+			for (int i = 0; i < count; i++) {
+				double v = column[selection[i]];
+				if (!Double.isNaN(v) && matches(Double.compare(v, arg)))
+					selection[ret++] = selection[i];
+			}
+			return ret;
+		}
+		String[] column = track.getTextColumn(field);
+		if (op == Op.IN_CLASS) {
+			if (!cd.type.isClassification())
+				throw new IllegalStateException("Field " + field + " is not classification");
+			Set<String> names = new HashSet<String>();
+			collectClassNames(cd.type.getClassification(), String.valueOf(value), false, names);
+			for (int i = 0; i < count; i++)
+				if (column[selection[i]] != null && names.contains(column[selection[i]]))
+					selection[ret++] = selection[i];
+			return ret;
+		}
+		String arg = value == null ? null : String.valueOf(value);
+		for (int i = 0; i < count; i++) {
+			String v = column[selection[i]];
+			if (v == null)
+				continue;
+			boolean match;
+			if (op == Op.PRESENT) {
+				match = true;
+			} else if (op == Op.CONTAINS) {
+				match = v.toLowerCase().contains(arg.toLowerCase());
+			} else {
+				match = matches(v.compareTo(arg));
+			}
+			if (match)
+				selection[ret++] = selection[i];
+		}
+		return ret;
+	}
+
+	private boolean matches(int cmp) {
+		switch (op) {
+		case EQ: return cmp == 0;
+		case NE: return cmp != 0;
+		case LT: return cmp < 0;
+		case LE: return cmp <= 0;
+		case GT: return cmp > 0;
+		case GE: return cmp >= 0;
+		default: throw new IllegalStateException("Unexpected operation: " + op);
+		}
+	}
+
+	private static void collectClassNames(ClassificationNode node, String className,
+			boolean inside, Set<String> names) {
+		inside = inside || className.equals(node.name);
+		if (inside)
+			names.add(node.name);
+		if (node.subnodes != null)
+			for (ClassificationNode child : node.subnodes)
+				collectClassNames(child, className, inside, names);
+	}
+
+	public static enum Op {
+		EQ, NE, LT, LE, GT, GE, CONTAINS, IN_CLASS, PRESENT
+	}
+}
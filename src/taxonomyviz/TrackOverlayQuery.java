@@ -0,0 +1,346 @@
+package taxonomyviz;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import util.db.MysqlConn;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Overlay of several tracks inside one subtree. Every track is scanned
+ * independently (in parallel, one thread per track) over [ind, maxind] of
+ * subtree root and delivers its items in ind order as columnar blocks with
+ * filters applied column by column. Blocks of all tracks are joined by
+ * sort-merge on ind and only nodes having matching items in every track are
+ * returned. Tracks stored in database (StoredTrackScan) are streamed through
+ * bounded queues, so memory of query depends on block size rather than on
+ * track size; tracks already loaded into memory (TrackScan) are filtered as
+ * one block.
+ */
+public class TrackOverlayQuery {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: TrackOverlayQuery <root taxid> <track.json|db:<track id>> " +
+					"[field:op:value ...] [-- <track.json|db:<track id>> [field:op:value ...] ...]");
+			return;
+		}
+		TaxonomySnapshot snapshot = TaxonomyHolder.get();
+		TaxTreeIndex index = snapshot.index;
+		int rootTaxId = Integer.parseInt(args[0]);
+		List<Scan> scans = new ArrayList<Scan>();
+		Scan scan = null;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("--")) {
+				scan = null;
+			} else if (scan == null) {
+				if (args[i].startsWith("db:")) {
+					scan = new StoredTrackScan(Integer.parseInt(args[i].substring(3)),
+							snapshot.version, NcbiGenomesTrackPreparer.getColumns());
+				} else {
+					Track track = new ObjectMapper().readValue(new File(args[i]), Track.class);
+					scan = new TrackScan(new ColumnarTrack(track, index,
+							NcbiGenomesTrackPreparer.getColumns()));
+				}
+				scans.add(scan);
+			} else {
+				scan.filters.add(TrackFilter.parse(args[i]));
+			}
+		}
+		long time = System.currentTimeMillis();
+		List<Match> matches = run(index, rootTaxId, scans);
+		System.out.println("Matching nodes: " + matches.size() + ", query time: " +
+				(System.currentTimeMillis() - time) + " ms");
+	}
+
+	/**
+	 * @return matching nodes in pre-order
+	 */
+	public static List<Match> run(TaxTreeIndex index, int rootTaxId, List<? extends Scan> scans)
+			throws Exception {
+		int rootInd = index.getInd(rootTaxId);
+		if (rootInd < 0)
+			throw new IllegalStateException("Tax node wasn't found for id=" + rootTaxId);
+		List<Match> ret = new ArrayList<Match>();
+		int trackCount = scans.size();
+		if (trackCount == 0)
+			return ret;
+		// Streaming scans block on full queues, so every scan needs own thread
+		ExecutorService executor = Executors.newFixedThreadPool(trackCount);
+		try {
+			List<Cursor> cursors = new ArrayList<Cursor>();
+			for (Scan scan : scans) {
+				scan.start(executor, rootInd, index.getMaxInd(rootInd));
+				cursors.add(new Cursor(scan));
+			}
+			while (true) {
+				int maxInd = -1;
+				for (Cursor cursor : cursors) {
+					if (!cursor.isValid())
+						return ret;
+					maxInd = Math.max(maxInd, cursor.getInd());
+				}
+				boolean aligned = true;
+				for (Cursor cursor : cursors) {
+					while (cursor.isValid() && cursor.getInd() < maxInd)
+						cursor.advance();
+					if (!cursor.isValid())
+						return ret;
+					if (cursor.getInd() != maxInd)
+						aligned = false;
+				}
+				if (!aligned)
+					continue;
+				Match match = new Match(index.getTaxId(maxInd), maxInd);
+				for (Cursor cursor : cursors) {
+					List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+					while (cursor.isValid() && cursor.getInd() == maxInd) {
+						items.add(cursor.getItem());
+						cursor.advance();
+					}
+					match.items.add(items);
+				}
+				ret.add(match);
+			}
+		} finally {
+			// Stops scans still producing blocks after join is over
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Filtered part of track: selected positions of columnar block in ind order.
+	 */
+	static class Block {
+		final ColumnarTrack track;
+		final int[] selection;
+		final int count;
+
+		Block(ColumnarTrack track, int[] selection, int count) {
+			this.track = track;
+			this.selection = selection;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Source of filtered items of one track in ind order.
+	 */
+	public abstract static class Scan {
+		public final List<TrackFilter> filters = new ArrayList<TrackFilter>();
+
+		/**
+		 * Starts scanning items in [fromInd, toInd] in thread of executor.
+		 */
+		abstract void start(ExecutorService executor, int fromInd, int toInd);
+
+		/**
+		 * @return next block in ind order or null when there are no more blocks
+		 */
+		abstract Block nextBlock() throws Exception;
+
+		/**
+		 * @return block with positions in [from, to) of track matching all filters
+		 */
+		Block select(ColumnarTrack track, int from, int to) {
+			int[] selection = new int[to - from];
+			for (int i = 0; i < selection.length; i++)
+				selection[i] = from + i;
+			int count = selection.length;
+			for (TrackFilter filter : filters)
+				count = filter.apply(track, selection, count);
+			return new Block(track, selection, count);
+		}
+	}
+
+	/**
+	 * Scan of track loaded into memory, it's filtered as one block.
+	 */
+	public static class TrackScan extends Scan {
+		public final ColumnarTrack track;
+		private Future<Block> result = null;
+
+		public TrackScan(ColumnarTrack track, TrackFilter... filters) {
+			this.track = track;
+			this.filters.addAll(Arrays.asList(filters));
+		}
+
+		@Override
+		void start(ExecutorService executor, final int fromInd, final int toInd) {
+			result = executor.submit(new Callable<Block>() {
+				@Override
+				public Block call() throws Exception {
+					return select(track, track.lowerBound(fromInd), track.lowerBound(toInd + 1));
+				}
+			});
+		}
+
+		@Override
+		Block nextBlock() throws Exception {
+			if (result == null)
+				return null;
+			Block ret = result.get();
+			result = null;
+			return ret;
+		}
+	}
+
+	/**
+	 * Scan of track stored by TrackStorage. Items are read with own
+	 * connection as a stream ordered by ind, collected into blocks of
+	 * blockSize items which are converted into columns (keeping stored inds)
+	 * and filtered, and passed through bounded queue, so at most queueBlocks
+	 * blocks are kept.
+	 */
+	public static class StoredTrackScan extends Scan {
+		private static final int blockSize = 1024;
+		private static final int queueBlocks = 4;
+		private static final Block endOfBlocks = new Block(null, new int[0], 0);
+
+		public final int trackId;
+		private final String taxonomyVersion;
+		private final Collection<ColumnDescription> descriptions;
+		private final BlockingQueue<Block> queue = new ArrayBlockingQueue<Block>(queueBlocks);
+		private Future<?> producer = null;
+
+		/**
+		 * @param taxonomyVersion version of taxonomy scanned inds belong to,
+		 * scan fails if track was stored for another one
+		 */
+		public StoredTrackScan(int trackId, String taxonomyVersion,
+				Collection<ColumnDescription> descriptions, TrackFilter... filters) {
+			this.trackId = trackId;
+			this.taxonomyVersion = taxonomyVersion;
+			this.descriptions = descriptions;
+			this.filters.addAll(Arrays.asList(filters));
+		}
+
+		@Override
+		void start(ExecutorService executor, final int fromInd, final int toInd) {
+			producer = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					produce(fromInd, toInd);
+					return null;
+				}
+			});
+		}
+
+		private void produce(int fromInd, int toInd) throws Exception {
+			MysqlConn conn = MysqlConn.create();
+			try {
+				final Track header = TrackStorage.loadTrackHeader(conn, trackId);
+				final List<Object> items = new ArrayList<Object>(blockSize);
+				final int[] inds = new int[blockSize];
+				TrackStorage.scanItems(conn, trackId, taxonomyVersion, fromInd, toInd, new TrackStorage.ItemProcessor() {
+					@Override
+					public void processItem(int ind, Map<String, Object> item) throws Exception {
+						inds[items.size()] = ind;
+						items.add(item);
+						if (items.size() >= blockSize)
+							flush(header, items, inds);
+					}
+				});
+				flush(header, items, inds);
+				queue.put(endOfBlocks);
+			} finally {
+				conn.close();
+			}
+		}
+
+		private void flush(Track header, List<Object> items, int[] inds) throws Exception {
+			if (items.isEmpty())
+				return;
+			Track blockTrack = new Track();
+			blockTrack.fields = header.fields;
+			blockTrack.data = new ArrayList<Object>(items);
+			// Items come sorted by ind, so block keeps their order
+			ColumnarTrack track = new ColumnarTrack(blockTrack, Arrays.copyOf(inds, items.size()),
+					descriptions);
+			items.clear();
+			Block block = select(track, 0, track.size());
+			if (block.count > 0)
+				queue.put(block);
+		}
+
+		@Override
+		Block nextBlock() throws Exception {
+			if (producer == null)
+				return null;
+			while (true) {
+				Block ret = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (ret == endOfBlocks) {
+					producer = null;
+					return null;
+				}
+				if (ret != null)
+					return ret;
+				// Failure of producer is rethrown here
+				if (producer.isDone() && queue.isEmpty()) {
+					producer.get();
+					producer = null;
+					return null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Current position in blocks of one scan.
+	 */
+	private static class Cursor {
+		private final Scan scan;
+		private Block block = null;
+		private int pos = 0;
+		private boolean ended = false;
+
+		Cursor(Scan scan) {
+			this.scan = scan;
+		}
+
+		boolean isValid() throws Exception {
+			while (!ended && (block == null || pos >= block.count)) {
+				block = scan.nextBlock();
+				pos = 0;
+				ended = block == null;
+			}
+			return !ended;
+		}
+
+		int getInd() {
+			return block.track.getInd(block.selection[pos]);
+		}
+
+		Map<String, Object> getItem() {
+			return block.track.getItemAt(block.selection[pos]);
+		}
+
+		void advance() {
+			pos++;
+		}
+	}
+
+	public static class Match {
+		public final int taxid;
+		public final int ind;
+		/** Matching items of every track in order of scans */
+		public final List<List<Map<String, Object>>> items = new ArrayList<List<Map<String, Object>>>();
+
+		public Match(int taxid, int ind) {
+			this.taxid = taxid;
+			this.ind = ind;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package taxonomyviz;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import util.db.MysqlConn;
+
+/**
+ * Tracks stored in database with items keyed by (track_id, ind), so items
+ * of any subtree are read by one range scan over [ind, maxind] of its top
+ * node.
+ */
+public class TrackStorage {
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: TrackStorage <track.json> [<taxid>]");
+			return;
+		}
+		Track track = mapper.readValue(new File(args[0]), Track.class);
+		TaxonomySnapshot snapshot = TaxonomyHolder.get();
+		long time = System.currentTimeMillis();
+		int trackId = saveTrack(track, snapshot.index, snapshot.version);
+		System.out.println("Track id: " + trackId + ", upload time: " +
+				(System.currentTimeMillis() - time) + " ms");
+		if (args.length > 1) {
+			time = System.currentTimeMillis();
+			Track subtrack = loadTrack(trackId, Integer.parseInt(args[1]));
+			System.out.println("Items in subtree: " + subtrack.data.size() + ", query time: " +
+					(System.currentTimeMillis() - time) + " ms");
+		}
+	}
+
+	/**
+	 * Items with taxid not found in index are skipped.
+	 * @param taxonomyVersion version of taxonomy index was built from
+	 * @return id of stored track
+	 */
+	public static int saveTrack(Track track, final TaxTreeIndex index, String taxonomyVersion)
+			throws Exception {
+		MysqlDbManager.createTrackTables();
+		MysqlConn conn = MysqlConn.get();
+		final int trackId = conn.execSqlWithKeygen("insert into " + MysqlDbManager.TBL_TRACKS +
+				" (name, user, fields, taxonomy_version) values (?,?,?,?)", track.name, track.user,
+				mapper.writeValueAsString(track.fields), taxonomyVersion);
+		final List<Object[]> items = new ArrayList<Object[]>();
+		int skipped = 0;
+		for (Object obj : track.data) {
+			@SuppressWarnings("unchecked")
+			Map<String, Object> item = (Map<String, Object>)obj;
+			Number taxId = (Number)item.get("taxid");
+			int ind = taxId == null ? -1 : index.getInd(taxId.intValue());
+			if (ind < 0) {
+				skipped++;
+				continue;
+			}
+			items.add(new Object[] {ind, items.size(), taxId.intValue(), item});
+		}
+		if (skipped > 0)
+			System.out.println("Track items with unknown taxid: " + skipped);
+		Collections.sort(items, new Comparator<Object[]>() {
+			@Override
+			public int compare(Object[] o1, Object[] o2) {
+				int ret = Integer.compare((Integer)o1[0], (Integer)o2[0]);
+				return ret != 0 ? ret : Integer.compare((Integer)o1[1], (Integer)o2[1]);
+			}
+		});
+		conn.execBatchInsert("insert into " + MysqlDbManager.TBL_TRACK_ITEMS +
+				" (track_id, ind, seq, taxid, data)", new MysqlConn.RowProviderForList<Object[]>(items) {
+			@Override
+			public Object[] transformIntoRow(Object[] item) throws Exception {
+				return new Object[] {trackId, item[0], item[1], item[2],
+						mapper.writeValueAsString(item[3])};
+			}
+		});
+		return trackId;
+	}
+
+	/**
+	 * @return track with items of tax node and all its descendants in
+	 * pre-order of their tax nodes
+	 */
+	public static Track loadTrack(int trackId, int taxId) throws Exception {
+		MysqlConn conn = MysqlConn.get();
+		// Tax index table and taxonomy files are replaced by the same rebuild
+		checkTaxonomyVersion(conn, trackId, TaxTreeLoader.getTaxonomyVersion());
+		Track ret = loadTrackHeader(conn, trackId);
+		final List<Object> data = new ArrayList<Object>();
+		ret.data = data;
+		conn.processSql("select i.data from " + MysqlDbManager.TBL_TAX_INDEX + " t, " +
+				MysqlDbManager.TBL_TRACK_ITEMS + " i where t.taxid=? and i.track_id=? and " +
+				"i.ind between t.ind and t.maxind order by i.ind, i.seq", new MysqlConn.SqlProcessor() {
+			@Override
+			public void processRow(ResultSet rs) throws Exception {
+				data.add(mapper.readValue(rs.getString(1), Object.class));
+			}
+		}, taxId, trackId);
+		return ret;
+	}
+
+	/**
+	 * @return name, user and fields of track (data is null)
+	 */
+	public static Track loadTrackHeader(MysqlConn conn, int trackId) throws Exception {
+		Track ret = conn.loadSingle("select name, user, fields from " + MysqlDbManager.TBL_TRACKS +
+				" where track_id=?", new MysqlConn.SqlLoader<Track>() {
+			@Override
+			public Track collectRow(ResultSet rs) throws Exception {
+				Track ret = new Track();
+				ret.name = rs.getString(1);
+				ret.user = rs.getString(2);
+				ret.fields = mapper.readValue(rs.getString(3), new TypeReference<List<String>>() {});
+				return ret;
+			}
+		}, trackId);
+		if (ret == null)
+			throw new IllegalStateException("Track wasn't found for id=" + trackId);
+		return ret;
+	}
+
+	/**
+	 * @throws IllegalStateException if inds of track items belong to another
+	 * version of taxonomy
+	 */
+	public static void checkTaxonomyVersion(MysqlConn conn, int trackId, String taxonomyVersion)
+			throws Exception {
+		List<String> versions = conn.collectSql("select taxonomy_version from " +
+				MysqlDbManager.TBL_TRACKS + " where track_id=?", MysqlConn.STRING_LOADER, trackId);
+		if (versions.isEmpty())
+			throw new IllegalStateException("Track wasn't found for id=" + trackId);
+		if (!taxonomyVersion.equals(versions.get(0)))
+			throw new IllegalStateException("Track " + trackId + " was stored for taxonomy version " +
+					versions.get(0) + " but current one is " + taxonomyVersion + ", it has to be saved again");
+	}
+
+	/**
+	 * Streams items with ind in [fromInd, toInd] in order of ind (and of
+	 * their position in original track) without collecting them.
+	 * @param conn connection which isn't used by anybody else until scan is
+	 * over (result set is streamed)
+	 * @param taxonomyVersion version of taxonomy fromInd and toInd belong to
+	 */
+	public static void scanItems(MysqlConn conn, int trackId, String taxonomyVersion,
+			int fromInd, int toInd, final ItemProcessor processor) throws Exception {
+		checkTaxonomyVersion(conn, trackId, taxonomyVersion);
+		conn.processSql("select ind, data from " + MysqlDbManager.TBL_TRACK_ITEMS +
+				" where track_id=? and ind between ? and ? order by ind, seq", new MysqlConn.SqlProcessor() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public void processRow(ResultSet rs) throws Exception {
+				processor.processItem(rs.getInt(1), mapper.readValue(rs.getString(2), Map.class));
+			}
+		}, trackId, fromInd, toInd);
+	}
+
+	/**
+	 * Copies items of tracks stored for given taxonomy version into
+	 * targetTable with ind of their taxid in indexTable, items which taxid
+	 * isn't there any more are dropped. Tracks saved after copy started
+	 * aren't copied and stay marked by old version.
+	 * @return max id of copied tracks (0 if nothing was copied)
+	 */
+	static int rekeyItems(MysqlConn conn, String taxonomyVersion, String indexTable,
+			String targetTable) throws Exception {
+		Integer maxTrackId = conn.loadSingle("select max(track_id) from " + MysqlDbManager.TBL_TRACKS +
+				" where taxonomy_version=?", MysqlConn.INT_LOADER, taxonomyVersion);
+		conn.execSql("create table " + targetTable + " like " + MysqlDbManager.TBL_TRACK_ITEMS);
+		if (maxTrackId == null || maxTrackId == 0)
+			return 0;
+		conn.execSql("insert into " + targetTable + " (track_id, ind, seq, taxid, data) " +
+				"select i.track_id, t.ind, i.seq, i.taxid, i.data from " + MysqlDbManager.TBL_TRACKS +
+				" k, " + MysqlDbManager.TBL_TRACK_ITEMS + " i, " + indexTable + " t " +
+				"where k.taxonomy_version=? and k.track_id<=? and i.track_id=k.track_id and " +
+				"t.taxid=i.taxid", taxonomyVersion, maxTrackId);
+		return maxTrackId;
+	}
+
+	/**
+	 * Marks tracks copied by rekeyItems with version of new taxonomy once
+	 * copied items replaced current ones.
+	 */
+	static void updateTaxonomyVersion(MysqlConn conn, String oldVersion, String newVersion,
+			int maxTrackId) throws Exception {
+		conn.execSql("update " + MysqlDbManager.TBL_TRACKS + " set taxonomy_version=? " +
+				"where taxonomy_version=? and track_id<=?", newVersion, oldVersion, maxTrackId);
+	}
+
+	public static void deleteTrack(int trackId) throws Exception {
+		MysqlConn conn = MysqlConn.get();
+		for (String table : Arrays.asList(MysqlDbManager.TBL_TRACK_ITEMS, MysqlDbManager.TBL_TRACKS))
+			conn.execSql("delete from " + table + " where track_id=?", trackId);
+	}
+
+	public interface ItemProcessor {
+		void processItem(int ind, Map<String, Object> item) throws Exception;
+	}
+}
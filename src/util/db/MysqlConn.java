@@ -14,8 +14,9 @@ public class MysqlConn {
     private String pwd;
     private Connection conn = null;
     private boolean dbWasChacked = false;
+    private final MysqlStats stats = MysqlStats.get();
 
-    private static MysqlConn instance = null;
+    private static volatile MysqlConn instance = null;
 
     public static final SqlLoader<Integer> INT_LOADER = new SqlLoader<Integer>() {
         public Integer collectRow(ResultSet rs) throws Exception {
@@ -23,9 +24,59 @@ public class MysqlConn {
         }
     };
 
+    public static final SqlLoader<String> STRING_LOADER = new SqlLoader<String>() {
+        public String collectRow(ResultSet rs) throws Exception {
+            return rs.getString(1);
+        }
+    };
+
     public static MysqlConn get() {
-        if (instance != null)
+        MysqlConn ret = instance;
+        if (ret != null)
+            return ret;
+        synchronized (MysqlConn.class) {
+            if (instance != null)
+                return instance;
+            Properties props = loadConfig();
+            String statsLogSeconds = getConfigParamOrNull(props, "stats.log.seconds");
+            if (statsLogSeconds != null)
+                MysqlStats.get().startLogging(Long.parseLong(statsLogSeconds));
+            instance = create(props);
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            	public void run() {
+            		instance.close();
+            		System.out.println("Mysql connection was closed in shutdown hook.");
+            	}
+            }));
             return instance;
+        }
+    }
+
+    /**
+     * @return new connection configured by mysql.cfg (independent of shared
+     * one returned by get(), caller has to close it)
+     */
+    public static MysqlConn create() {
+        return create(loadConfig());
+    }
+
+    private static MysqlConn create(Properties props) {
+        String host = getConfigParam(props, "host", "localhost");
+        String port = getConfigParam(props, "port", "3306");
+        String db = getConfigParam(props, "db");
+        String user = getConfigParam(props, "user");
+        String pwd = getConfigParam(props, "pwd", "");
+        return new MysqlConn(host, port, db, user, pwd);
+    }
+
+    /**
+     * @return value of parameter of mysql.cfg or defaultValue if it's not set there
+     */
+    public static String getConfigParam(String paramName, String defaultValue) {
+        return getConfigParam(loadConfig(), paramName, defaultValue);
+    }
+
+    private static Properties loadConfig() {
         try {
             File config = new File("mysql.cfg").getCanonicalFile();
             if (!config.exists())
@@ -35,19 +86,7 @@ public class MysqlConn {
             InputStream is = new FileInputStream(config);
             props.load(is);
             is.close();
-            String host = getConfigParam(props, "host", "localhost");
-            String port = getConfigParam(props, "port", "3306");
-            String db = getConfigParam(props, "db");
-            String user = getConfigParam(props, "user");
-            String pwd = getConfigParam(props, "pwd", "");
-            instance = new MysqlConn(host, port, db, user, pwd);
-            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
-            	public void run() {
-            		instance.close();
-            		System.out.println("Mysql connection was closed in shutdown hook.");
-            	}
-            }));
-            return instance;
+            return props;
         } catch (IOException e) {
             throw new IllegalStateException("Error loading mysql configuration properties", e);
         }
@@ -117,13 +156,16 @@ public class MysqlConn {
         for (int i = 0; i < 3; i++) {
             if (conn != null) {
                 try {
+                    long time = System.nanoTime();
                     Statement st = conn.createStatement();
                     st.executeQuery("select 1").close();
                     st.close();
+                    stats.addStatement("select 1", System.nanoTime() - time);
                     break;
                 } catch (Exception ex) {
                     // Something wrong
                     System.out.println("Problems with database connection, trying to reconnect...");
+                    stats.addReconnect();
                     close();
                 }
             }
@@ -149,42 +191,77 @@ public class MysqlConn {
         return this;
     }
 
-    public synchronized MysqlConn execSql(String sql, Object... params) throws SQLException {
-        Connection conn = getConnection();
-        PreparedStatement st = conn.prepareStatement(sql);
-        for (int i = 0; i < params.length; i++)
-            st.setObject(1 + i, params[i]);
-        st.execute();
-        st.close();
-        return this;
+    /**
+     * Records time spent waiting for monitor of this connection.
+     * @return time when monitor was acquired
+     */
+    private long lockAcquired(long waitStart) {
+        long ret = System.nanoTime();
+        stats.addLockWait(ret - waitStart);
+        return ret;
     }
 
-    public synchronized MysqlConn execBatch(String sql, RowProvider paramsProvider) throws Exception {
-        Connection conn = getConnection();
-        PreparedStatement st = conn.prepareStatement(sql);
-        int bufferSize = 0;
-        while (true) {
-            Object[] params = paramsProvider.nextRow();
-            if (params == null)
-                break;
+    public MysqlConn execSql(String sql, Object... params) throws SQLException {
+        long time = System.nanoTime();
+        synchronized (this) {
+            lockAcquired(time);
+            Connection conn = getConnection();
+            PreparedStatement st = conn.prepareStatement(sql);
             for (int i = 0; i < params.length; i++)
                 st.setObject(1 + i, params[i]);
-            st.addBatch();
-            bufferSize++;
-            if (bufferSize == 100) {
-                st.executeBatch();
-                bufferSize = 0;
+            time = System.nanoTime();
+            st.execute();
+            stats.addStatement(sql, System.nanoTime() - time);
+            int updated = st.getUpdateCount();
+            if (updated > 0)
+                stats.addRowsWritten(updated);
+            st.close();
+            return this;
+        }
+    }
+
+    public MysqlConn execBatch(String sql, RowProvider paramsProvider) throws Exception {
+        long time = System.nanoTime();
+        synchronized (this) {
+            lockAcquired(time);
+            Connection conn = getConnection();
+            PreparedStatement st = conn.prepareStatement(sql);
+            int bufferSize = 0;
+            while (true) {
+                Object[] params = paramsProvider.nextRow();
+                if (params == null)
+                    break;
+                for (int i = 0; i < params.length; i++)
+                    st.setObject(1 + i, params[i]);
+                st.addBatch();
+                bufferSize++;
+                if (bufferSize == 100) {
+                    executeBatch(sql, st, bufferSize);
+                    bufferSize = 0;
+                }
             }
+            if (bufferSize > 0)
+                executeBatch(sql, st, bufferSize);
+            st.close();
+            return this;
         }
-        if (bufferSize > 0)
-            st.executeBatch();
-        st.close();
-        return this;
     }
 
-    public synchronized Batch execBatch(String sql) throws Exception {
-        Connection conn = getConnection();
-        final PreparedStatement st = conn.prepareStatement(sql);
+    private void executeBatch(String sql, PreparedStatement st, int rows) throws SQLException {
+        long time = System.nanoTime();
+        st.executeBatch();
+        time = System.nanoTime() - time;
+        stats.addStatement(sql, time);
+        stats.addBatchFlush(rows, time);
+    }
+
+    public Batch execBatch(final String sql) throws Exception {
+        long time = System.nanoTime();
+        final PreparedStatement st;
+        synchronized (this) {
+            lockAcquired(time);
+            st = getConnection().prepareStatement(sql);
+        }
         return new Batch() {
             int bufferSize = 0;
             @Override
@@ -199,7 +276,7 @@ public class MysqlConn {
 
             private void flush() throws Exception {
                 if (bufferSize > 0)
-                    st.executeBatch();
+                    executeBatch(sql, st, bufferSize);
                 bufferSize = 0;
             }
 
@@ -212,24 +289,28 @@ public class MysqlConn {
     }
 
 
-    public synchronized MysqlConn execBatchInsert(String sql, RowProvider paramsProvider) throws Exception {
-        Connection conn = getConnection();
-        PreparedStatement st = conn.prepareStatement(sql);
-        List<Object[]> buffer = new ArrayList<Object[]>();
-        while (true) {
-            Object[] row = paramsProvider.nextRow();
-            if (row == null)
-                break;
-            buffer.add(row);
-            if (buffer.size() >= 1000) {
-                flushBuffer(sql, buffer);
-                buffer.clear();
+    public MysqlConn execBatchInsert(String sql, RowProvider paramsProvider) throws Exception {
+        long time = System.nanoTime();
+        synchronized (this) {
+            lockAcquired(time);
+            Connection conn = getConnection();
+            PreparedStatement st = conn.prepareStatement(sql);
+            List<Object[]> buffer = new ArrayList<Object[]>();
+            while (true) {
+                Object[] row = paramsProvider.nextRow();
+                if (row == null)
+                    break;
+                buffer.add(row);
+                if (buffer.size() >= 1000) {
+                    flushBuffer(sql, buffer);
+                    buffer.clear();
+                }
             }
+            if (buffer.size() > 0)
+                flushBuffer(sql, buffer);
+            st.close();
+            return this;
         }
-        if (buffer.size() > 0)
-            flushBuffer(sql, buffer);
-        st.close();
-        return this;
     }
 
     private void flushBuffer(String sqlPrefix, List<Object[]> buffer) throws Exception {
@@ -255,7 +336,11 @@ public class MysqlConn {
             for (Object value : row)
                 statement.setObject(parameterIndex++, value);
         }
+        long time = System.nanoTime();
         statement.execute();
+        time = System.nanoTime() - time;
+        stats.addStatement(query, time);
+        stats.addBatchFlush(buffer.size(), time);
         statement.close();
     }
 
@@ -263,64 +348,116 @@ public class MysqlConn {
         return execSqlWithKeygen(sql, INT_LOADER, params);
     }
 
-    public synchronized <T> T execSqlWithKeygen(String sql, SqlLoader<T> keyLoader, Object... params) throws Exception {
-        Connection conn = getConnection();
-        PreparedStatement st = conn.prepareStatement(sql);
-        for (int i = 0; i < params.length; i++)
-            st.setObject(1 + i, params[i]);
-        st.executeUpdate();
-        T ret = null;
-        ResultSet rs = st.executeQuery("SELECT LAST_INSERT_ID()");
-        if (rs.next())
-            ret = keyLoader.collectRow(rs);
-        rs.close();
-        st.close();
-        return ret;
+    public <T> T execSqlWithKeygen(String sql, SqlLoader<T> keyLoader, Object... params) throws Exception {
+        long time = System.nanoTime();
+        synchronized (this) {
+            lockAcquired(time);
+            Connection conn = getConnection();
+            PreparedStatement st = conn.prepareStatement(sql);
+            for (int i = 0; i < params.length; i++)
+                st.setObject(1 + i, params[i]);
+            time = System.nanoTime();
+            stats.addRowsWritten(st.executeUpdate());
+            stats.addStatement(sql, System.nanoTime() - time);
+            T ret = null;
+            ResultSet rs = st.executeQuery("SELECT LAST_INSERT_ID()");
+            if (rs.next())
+                ret = keyLoader.collectRow(rs);
+            rs.close();
+            st.close();
+            return ret;
+        }
     }
 
-    public synchronized MysqlConn processSql(String sql, SqlProcessor sp, Object... params) throws Exception {
-        Connection conn = getConnection();
-        PreparedStatement st = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-        st.setFetchSize(Integer.MIN_VALUE);
-        for (int i = 0; i < params.length; i++)
-            st.setObject(1 + i, params[i]);
-        ResultSet rs = st.executeQuery();
-        while (rs.next()) {
-            sp.processRow(rs);
+    /**
+     * Rows are streamed from server, so time recorded for statement includes
+     * processing of rows by sp. If sp fails (or thread is interrupted) query
+     * is cancelled, since closing streamed result set would read all its
+     * remaining rows.
+     */
+    public MysqlConn processSql(String sql, SqlProcessor sp, Object... params) throws Exception {
+        long time = System.nanoTime();
+        synchronized (this) {
+            lockAcquired(time);
+            Connection conn = getConnection();
+            PreparedStatement st = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            st.setFetchSize(Integer.MIN_VALUE);
+            for (int i = 0; i < params.length; i++)
+                st.setObject(1 + i, params[i]);
+            time = System.nanoTime();
+            ResultSet rs = null;
+            boolean completed = false;
+            try {
+                rs = st.executeQuery();
+                long rows = 0;
+                while (rs.next()) {
+                    sp.processRow(rs);
+                    rows++;
+                    if ((rows & 0xfff) == 0 && Thread.currentThread().isInterrupted())
+                        throw new InterruptedException("Query was interrupted: " + sql);
+                }
+                completed = true;
+                stats.addStatement(sql, System.nanoTime() - time);
+                stats.addRowsRead(rows);
+            } finally {
+                if (!completed) {
+                    try {
+                        st.cancel();
+                        if (rs != null)
+                            rs.close();
+                        st.close();
+                    } catch (SQLException ignore) {}
+                } else {
+                    rs.close();
+                    st.close();
+                }
+            }
+            return this;
         }
-        rs.close();
-        st.close();
-        return this;
     }
 
-    public synchronized <T> List<T> collectSql(String sql, SqlLoader<T> sl, Object... params) throws Exception {
-        Connection conn = getConnection();
-        PreparedStatement st = conn.prepareStatement(sql);
-        for (int i = 0; i < params.length; i++)
-            st.setObject(1 + i, params[i]);
-        ResultSet rs = st.executeQuery();
-        List<T> ret = new ArrayList<T>();
-        while (rs.next()) {
-            ret.add(sl.collectRow(rs));
+    public <T> List<T> collectSql(String sql, SqlLoader<T> sl, Object... params) throws Exception {
+        long time = System.nanoTime();
+        synchronized (this) {
+            lockAcquired(time);
+            Connection conn = getConnection();
+            PreparedStatement st = conn.prepareStatement(sql);
+            for (int i = 0; i < params.length; i++)
+                st.setObject(1 + i, params[i]);
+            time = System.nanoTime();
+            ResultSet rs = st.executeQuery();
+            List<T> ret = new ArrayList<T>();
+            while (rs.next()) {
+                ret.add(sl.collectRow(rs));
+            }
+            rs.close();
+            stats.addStatement(sql, System.nanoTime() - time);
+            stats.addRowsRead(ret.size());
+            st.close();
+            return ret;
         }
-        rs.close();
-        st.close();
-        return ret;
     }
 
-    public synchronized <T> T loadSingle(String sql, SqlLoader<T> sl, Object... params) throws Exception {
-        Connection conn = getConnection();
-        PreparedStatement st = conn.prepareStatement(sql);
-        for (int i = 0; i < params.length; i++)
-            st.setObject(1 + i, params[i]);
-        ResultSet rs = st.executeQuery();
-        T ret = null;
-        if (rs.next()) {
-            ret = sl.collectRow(rs);
+    public <T> T loadSingle(String sql, SqlLoader<T> sl, Object... params) throws Exception {
+        long time = System.nanoTime();
+        synchronized (this) {
+            lockAcquired(time);
+            Connection conn = getConnection();
+            PreparedStatement st = conn.prepareStatement(sql);
+            for (int i = 0; i < params.length; i++)
+                st.setObject(1 + i, params[i]);
+            time = System.nanoTime();
+            ResultSet rs = st.executeQuery();
+            T ret = null;
+            if (rs.next()) {
+                ret = sl.collectRow(rs);
+                stats.addRowsRead(1);
+            }
+            rs.close();
+            stats.addStatement(sql, System.nanoTime() - time);
+            st.close();
+            return ret;
         }
-        rs.close();
-        st.close();
-        return ret;
     }
 
     public synchronized void close() {
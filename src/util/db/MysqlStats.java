@@ -0,0 +1,314 @@
+package util.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import javax.management.ObjectName;
+
+/**
+ * Statistics of all MysqlConn instances of process: latency histograms per
+ * SQL template (literals replaced by ?), row counters, batch flushes and
+ * time spent waiting for connection monitor. Recording is a few atomic
+ * increments, so it's always on. Values are exposed over JMX as
+ * util.db:type=MysqlStats and can be printed periodically (see
+ * startLogging or stats.log.seconds parameter of mysql.cfg).
+ */
+public class MysqlStats implements MysqlStatsMBean {
+    private static final int maxTemplates = 1000;
+    private static final int maxCachedSql = 10000;
+    private static final String otherTemplate = "<other>";
+    private static final Pattern whitespace = Pattern.compile("\\s+");
+    private static final Pattern stringLiteral = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'");
+    private static final Pattern numberLiteral = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern valueLists = Pattern.compile(
+            "(\\(\\?(?: ?, ?\\?)*\\))(?: ?, ?\\(\\?(?: ?, ?\\?)*\\))+");
+    private static final Pattern inList = Pattern.compile("(?i)\\bin ?\\(\\?(?: ?, ?\\?)*\\)");
+
+    private static MysqlStats instance = null;
+
+    private final Map<String, String> sqlToTemplate = new ConcurrentHashMap<String, String>();
+    private final ConcurrentHashMap<String, Histogram> templates =
+            new ConcurrentHashMap<String, Histogram>();
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong batchFlushRows = new AtomicLong();
+    private final Histogram batchFlushes = new Histogram();
+    private final Histogram lockWaits = new Histogram();
+    private ScheduledExecutorService logger = null;
+
+    public static synchronized MysqlStats get() {
+        if (instance == null) {
+            instance = new MysqlStats();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(instance,
+                        new ObjectName("util.db:type=MysqlStats"));
+            } catch (Exception ex) {
+                System.out.println("Mysql statistics weren't registered in JMX: " + ex.getMessage());
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return sql with literals replaced by ? and in-lists and multi-row
+     * value lists collapsed, so one template covers all calls of the same statement
+     */
+    public static String toTemplate(String sql) {
+        String ret = whitespace.matcher(sql.trim()).replaceAll(" ");
+        ret = stringLiteral.matcher(ret).replaceAll("?");
+        ret = numberLiteral.matcher(ret).replaceAll("?");
+        ret = inList.matcher(ret).replaceAll("in (...)");
+        return valueLists.matcher(ret).replaceAll("$1, ...");
+    }
+
+    public void addStatement(String sql, long nanos) {
+        String template = sqlToTemplate.get(sql);
+        if (template == null) {
+            template = toTemplate(sql);
+            if (sqlToTemplate.size() < maxCachedSql)
+                sqlToTemplate.put(sql, template);
+        }
+        Histogram histogram = templates.get(template);
+        if (histogram == null) {
+            if (templates.size() >= maxTemplates)
+                template = otherTemplate;
+            Histogram prev = templates.putIfAbsent(template, histogram = new Histogram());
+            if (prev != null)
+                histogram = prev;
+        }
+        histogram.add(nanos);
+    }
+
+    public void addRowsRead(long rows) {
+        rowsRead.addAndGet(rows);
+    }
+
+    public void addRowsWritten(long rows) {
+        rowsWritten.addAndGet(rows);
+    }
+
+    public void addReconnect() {
+        reconnects.incrementAndGet();
+    }
+
+    public void addBatchFlush(int rows, long nanos) {
+        batchFlushRows.addAndGet(rows);
+        batchFlushes.add(nanos);
+        rowsWritten.addAndGet(rows);
+    }
+
+    public void addLockWait(long nanos) {
+        lockWaits.add(nanos);
+    }
+
+    @Override
+    public long getStatementCount() {
+        long ret = 0;
+        for (Histogram histogram : templates.values())
+            ret += histogram.getCount();
+        return ret;
+    }
+
+    @Override
+    public double getStatementMillis() {
+        double ret = 0;
+        for (Histogram histogram : templates.values())
+            ret += histogram.getTotalMillis();
+        return ret;
+    }
+
+    @Override
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    @Override
+    public long getBatchFlushCount() {
+        return batchFlushes.getCount();
+    }
+
+    @Override
+    public long getBatchFlushRows() {
+        return batchFlushRows.get();
+    }
+
+    @Override
+    public double getBatchFlushMillis() {
+        return batchFlushes.getTotalMillis();
+    }
+
+    @Override
+    public double getBatchFlushP99Millis() {
+        return batchFlushes.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long getLockAcquisitions() {
+        return lockWaits.getCount();
+    }
+
+    @Override
+    public double getLockWaitMillis() {
+        return lockWaits.getTotalMillis();
+    }
+
+    public Map<String, Histogram> getTemplates() {
+        return Collections.unmodifiableMap(templates);
+    }
+
+    @Override
+    public String[] getTemplateSummaries() {
+        List<Map.Entry<String, Histogram>> entries =
+                new ArrayList<Map.Entry<String, Histogram>>(templates.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Histogram>>() {
+            @Override
+            public int compare(Map.Entry<String, Histogram> o1, Map.Entry<String, Histogram> o2) {
+                return Double.compare(o2.getValue().getTotalMillis(), o1.getValue().getTotalMillis());
+            }
+        });
+        String[] ret = new String[entries.size()];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = entries.get(i).getValue() + " | " + entries.get(i).getKey();
+        return ret;
+    }
+
+    @Override
+    public synchronized void reset() {
+        templates.clear();
+        rowsRead.set(0);
+        rowsWritten.set(0);
+        reconnects.set(0);
+        batchFlushRows.set(0);
+        batchFlushes.reset();
+        lockWaits.reset();
+    }
+
+    /**
+     * Prints one line with changes of counters every period.
+     */
+    public synchronized void startLogging(long periodSeconds) {
+        if (logger != null)
+            logger.shutdown();
+        logger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread ret = new Thread(r, "mysql-stats-logger");
+                ret.setDaemon(true);
+                return ret;
+            }
+        });
+        logger.scheduleAtFixedRate(new Runnable() {
+            private final long[] prev = new long[8];
+
+            @Override
+            public void run() {
+                long[] cur = {getStatementCount(), (long)getStatementMillis(), getRowsRead(),
+                        getRowsWritten(), getBatchFlushCount(), (long)getBatchFlushMillis(),
+                        (long)getLockWaitMillis(), getReconnects()};
+                String[] top = getTemplateSummaries();
+                System.out.println("Mysql stats: statements=" + (cur[0] - prev[0]) +
+                        " (" + (cur[1] - prev[1]) + " ms), rows read=" + (cur[2] - prev[2]) +
+                        ", rows written=" + (cur[3] - prev[3]) + ", batch flushes=" +
+                        (cur[4] - prev[4]) + " (" + (cur[5] - prev[5]) + " ms), lock wait=" +
+                        (cur[6] - prev[6]) + " ms, reconnects=" + (cur[7] - prev[7]) +
+                        (top.length > 0 ? ", top template: " + top[0] : ""));
+                System.arraycopy(cur, 0, prev, 0, cur.length);
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Latency histogram with power of 2 buckets of microseconds, so
+     * percentiles are upper bounds within factor of 2.
+     */
+    public static class Histogram {
+        private static final int bucketCount = 40;
+        private final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        public void add(long nanos) {
+            long micros = nanos / 1000;
+            int bucket = Math.min(bucketCount - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+                max = maxNanos.get();
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getTotalMillis() {
+            return totalNanos.get() / 1e6;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        public double getMeanMillis() {
+            long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+        }
+
+        /**
+         * @param p fraction between 0 and 1
+         */
+        public double getPercentileMillis(double p) {
+            long n = count.get();
+            if (n == 0)
+                return 0;
+            long rank = (long)Math.ceil(p * n);
+            long seen = 0;
+            for (int bucket = 0; bucket < bucketCount; bucket++) {
+                seen += buckets.get(bucket);
+                if (seen >= rank)
+                    return Math.min((1L << bucket) / 1e3, getMaxMillis());
+            }
+            return getMaxMillis();
+        }
+
+        void reset() {
+            for (int bucket = 0; bucket < bucketCount; bucket++)
+                buckets.set(bucket, 0);
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, total=%.1f ms, mean=%.3f ms, p50<=%.3f ms, " +
+                    "p99<=%.3f ms, max=%.3f ms", getCount(), getTotalMillis(), getMeanMillis(),
+                    getPercentileMillis(0.5), getPercentileMillis(0.99), getMaxMillis());
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package util.db;
+
+/**
+ * JMX view of MysqlStats (all values are totals since start or last reset).
+ */
+public interface MysqlStatsMBean {
+    long getStatementCount();
+    double getStatementMillis();
+    long getRowsRead();
+    long getRowsWritten();
+    long getReconnects();
+    long getBatchFlushCount();
+    long getBatchFlushRows();
+    double getBatchFlushMillis();
+    double getBatchFlushP99Millis();
+    long getLockAcquisitions();
+    double getLockWaitMillis();
+    /**
+     * @return one line per SQL template ordered by total time
+     */
+    String[] getTemplateSummaries();
+    void reset();
+}
@@ -0,0 +1,81 @@
+package taxonomyviz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class CompactTreeTest {
+	private static final String[] ranks = {null, "superkingdom", "phylum", "genus", "species"};
+
+	/**
+	 * @return random tree of more than 32 nodes, so hidden flags take
+	 * several words
+	 */
+	private static TaxNode randomTree(Random random) {
+		TaxNode root = new TaxNode(1, "root");
+		ArrayList<TaxNode> nodes = new ArrayList<TaxNode>();
+		nodes.add(root);
+		for (int taxId = 2; taxId <= 200; taxId++) {
+			TaxNode node = new TaxNode(taxId, "node \"" + taxId + "\"");
+			node.hidden = random.nextInt(3) == 0 ? 1 : 0;
+			node.rank = ranks[random.nextInt(ranks.length)];
+			TaxNode parent = nodes.get(random.nextInt(nodes.size()));
+			if (parent.children == null)
+				parent.children = new ArrayList<TaxNode>();
+			parent.children.add(node);
+			nodes.add(node);
+		}
+		return root;
+	}
+
+	private static void assertSameTree(TaxNode expected, TaxNode actual) {
+		assertEquals(expected.taxid, actual.taxid);
+		assertEquals(expected.title, actual.title);
+		assertEquals(expected.hidden, actual.hidden);
+		assertEquals(expected.rank, actual.rank);
+		int childCount = expected.children == null ? 0 : expected.children.size();
+		assertEquals(childCount, actual.children == null ? 0 : actual.children.size());
+		for (int i = 0; i < childCount; i++)
+			assertSameTree(expected.children.get(i), actual.children.get(i));
+	}
+
+	@Test
+	public void testJsonRoundTrip() throws Exception {
+		TaxNode root = randomTree(new Random(1));
+		ObjectMapper mapper = new ObjectMapper();
+		String json = mapper.writeValueAsString(CompactTree.fromTaxNode(root));
+		// All columns are JSON number arrays
+		assertTrue(json.contains("\"ranks\":["));
+		assertTrue(json.contains("\"hidden\":["));
+		CompactTree parsed = mapper.readValue(json, CompactTree.class);
+		assertEquals(200, parsed.size());
+		assertSameTree(root, parsed.toTaxNode());
+	}
+
+	@Test
+	public void testSubtreeFromIndex() throws Exception {
+		TaxNode root = randomTree(new Random(2));
+		TaxTreeIndex index = TaxTreeLoader.buildTaxIndex(root);
+		TaxNode subtree = root.children.get(0);
+		CompactTree compact = CompactTree.fromTaxIndex(index, index.getInd(subtree.taxid));
+		CompactTree parsed = new ObjectMapper().readValue(
+				new ObjectMapper().writeValueAsString(compact), CompactTree.class);
+		assertSameTree(subtree, parsed.toTaxNode());
+	}
+
+	@Test
+	public void testWithoutRanks() throws Exception {
+		CompactTree parsed = new ObjectMapper().readValue("{\"taxids\":[1,2],\"childCounts\":[1,0]," +
+				"\"titles\":[\"root\",\"child\"],\"hidden\":[2]}", CompactTree.class);
+		TaxNode root = parsed.toTaxNode();
+		assertNull(root.rank);
+		assertEquals(1, root.children.get(0).hidden);
+	}
+}
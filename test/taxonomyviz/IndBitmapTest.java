@@ -0,0 +1,99 @@
+package taxonomyviz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IndBitmapTest {
+
+	/**
+	 * Sets around array/bitmap container limit (4096 values per 65536 range)
+	 * in the first container plus a few values in further containers.
+	 */
+	private static BitSet randomSet(Random random, int count) {
+		BitSet ret = new BitSet();
+		while (ret.cardinality() < count)
+			ret.set(random.nextInt(1 << 16));
+		for (int i = 0; i < 100; i++)
+			ret.set((1 << 16) + random.nextInt(3 << 16));
+		return ret;
+	}
+
+	private static IndBitmap toBitmap(BitSet set) {
+		IndBitmap ret = new IndBitmap();
+		for (int v = set.nextSetBit(0); v >= 0; v = set.nextSetBit(v + 1))
+			ret.add(v);
+		return ret;
+	}
+
+	private static void assertSame(BitSet expected, IndBitmap actual) {
+		assertEquals(expected.cardinality(), actual.cardinality());
+		int[] values = actual.toArray();
+		int pos = 0;
+		for (int v = expected.nextSetBit(0); v >= 0; v = expected.nextSetBit(v + 1))
+			assertEquals(v, values[pos++]);
+		for (int v = expected.nextSetBit(0); v >= 0; v = expected.nextSetBit(v + 1))
+			assertTrue(actual.contains(v));
+	}
+
+	private static IndBitmap roundTrip(IndBitmap bitmap) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream os = new DataOutputStream(bytes);
+		bitmap.write(os);
+		os.close();
+		return IndBitmap.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	@Test
+	public void testOperationsAroundContainerLimit() throws Exception {
+		Random random = new Random(1);
+		int[] sizes = {1, 100, 4000, 4095, 4096, 4097, 4200, 10000, 60000};
+		for (int sizeA : sizes) {
+			for (int sizeB : sizes) {
+				BitSet a = randomSet(random, sizeA);
+				BitSet b = randomSet(random, sizeB);
+				IndBitmap bitmapA = toBitmap(a);
+				IndBitmap bitmapB = toBitmap(b);
+				assertSame(a, bitmapA);
+				BitSet and = (BitSet)a.clone();
+				and.and(b);
+				IndBitmap bitmapAnd = IndBitmap.and(bitmapA, bitmapB);
+				assertSame(and, bitmapAnd);
+				assertSame(and, roundTrip(bitmapAnd));
+				BitSet or = (BitSet)a.clone();
+				or.or(b);
+				IndBitmap bitmapOr = IndBitmap.or(bitmapA, bitmapB);
+				assertSame(or, bitmapOr);
+				assertSame(or, roundTrip(bitmapOr));
+				BitSet andNot = (BitSet)a.clone();
+				andNot.andNot(b);
+				IndBitmap bitmapAndNot = IndBitmap.andNot(bitmapA, bitmapB);
+				assertSame(andNot, bitmapAndNot);
+				assertSame(andNot, roundTrip(bitmapAndNot));
+			}
+		}
+	}
+
+	@Test
+	public void testAddRange() throws Exception {
+		int[][] ranges = {{0, 0}, {5, 4100}, {4000, 8191}, {65530, 65541}, {100, 200000}, {70000, 74095}};
+		for (int[] range : ranges) {
+			BitSet expected = new BitSet();
+			expected.set(3);
+			expected.set(range[0], range[1] + 1);
+			IndBitmap bitmap = IndBitmap.fromInds(3);
+			bitmap.addRange(range[0], range[1]);
+			assertSame(expected, bitmap);
+			assertSame(expected, roundTrip(bitmap));
+			assertEquals(bitmap, roundTrip(bitmap));
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package taxonomyviz;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class NameIndexTest {
+	private static final String namesDmp = "" +
+			"1\t|\troot\t|\t\t|\tscientific name\t|\n" +
+			"2\t|\tBacteria\t|\tBacteria <bacteria>\t|\tscientific name\t|\n" +
+			"2\t|\teubacteria\t|\t\t|\tgenbank common name\t|\n" +
+			"562\t|\tEscherichia coli\t|\t\t|\tscientific name\t|\n" +
+			"562\t|\tBacillus coli\t|\t\t|\tsynonym\t|\n" +
+			"1386\t|\tBacillus\t|\tBacillus <bacterium>\t|\tscientific name\t|\n" +
+			"55087\t|\tBacillus\t|\tBacillus <walking sticks>\t|\tscientific name\t|\n" +
+			"9606\t|\tHomo sapiens\t|\t\t|\tscientific name\t|\n" +
+			"9606\t|\thuman\t|\t\t|\tgenbank common name\t|\n" +
+			"63221\t|\thuman\t|\t\t|\tincludes\t|\n";
+	private static final String[] queries = {"root", "Bacteria", "Bacteria <bacteria>",
+		"EUBACTERIA", "escherichia_coli", "  Escherichia   coli ", "Bacillus coli", "Bacillus",
+		"Bacillus <walking sticks>", "human", "Homo sapiens", "unknown name"};
+
+	private static NameIndex build() throws Exception {
+		return NameIndex.build(new ByteArrayInputStream(namesDmp.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void testLookup() throws Exception {
+		NameIndex index = build();
+		assertEquals(1, index.getTaxId("root"));
+		assertEquals(2, index.getTaxId("EUBACTERIA"));
+		assertEquals(562, index.getTaxId("  Escherichia   coli "));
+		assertEquals(562, index.getTaxId("escherichia_coli"));
+		assertEquals(562, index.getTaxId("Bacillus coli"));
+		assertEquals(55087, index.getTaxId("Bacillus <walking sticks>"));
+		assertArrayEquals(new int[] {1386, 55087}, index.getTaxIds("Bacillus"));
+		// Scientific name goes before other name classes
+		assertEquals(9606, index.getTaxIds("human")[0]);
+		assertEquals(2, index.getTaxIds("human").length);
+		assertEquals(-1, index.getTaxId("unknown name"));
+	}
+
+	@Test
+	public void testSaveLoad() throws Exception {
+		NameIndex index = build();
+		File file = File.createTempFile("names", ".idx");
+		try {
+			index.save(file);
+			NameIndex loaded = NameIndex.load(file);
+			assertEquals(index.size(), loaded.size());
+			for (String query : queries)
+				assertArrayEquals(query, index.getTaxIds(query), loaded.getTaxIds(query));
+		} finally {
+			file.delete();
+		}
+	}
+}